@@ -0,0 +1,103 @@
+package at.jclehner.appopsxposed.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.android.settings.applications.AppOpsState;
+import com.android.settings.applications.AppOpsState.AppOpEntry;
+import com.android.settings.applications.AppOpsState.OpsTemplate;
+
+import at.jclehner.appopsxposed.util.AppOpsSnapshot;
+import at.jclehner.appopsxposed.util.ProgressiveResult;
+
+/**
+ * The work done by the AppOpsCategory and AppOpsDetails loaders. Unless
+ * noted otherwise, the AppOpsSnapshot is reused between invocations, as it
+ * is in the app.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AppOpsStateBenchmark
+{
+	private AppOpsState mState;
+	private String mPackageName;
+	private int mUid;
+
+	@Setup
+	public void setUp(FleetState state)
+	{
+		mState = new AppOpsState(state.context);
+
+		final Fleet.Package pkg = state.fleet.getPackage("com.example.app0");
+		mPackageName = pkg.packageName;
+		mUid = pkg.uid;
+	}
+
+	@Benchmark
+	public List<AppOpEntry> buildState() {
+		return mState.buildState(AppOpsState.PERSONAL_TEMPLATE);
+	}
+
+	@Benchmark
+	public List<AppOpEntry> buildStateColdSnapshot()
+	{
+		AppOpsSnapshot.invalidate();
+		return mState.buildState(AppOpsState.PERSONAL_TEMPLATE);
+	}
+
+	/**
+	 * Builds the state in chunks, as the AppOpsCategory loader does.
+	 * Partial results are consumed on the loading thread.
+	 */
+	@Benchmark
+	public List<AppOpEntry> buildStateProgressive(final Blackhole bh)
+	{
+		return mState.buildState(AppOpsState.PERSONAL_TEMPLATE,
+				new ProgressiveResult.Listener<AppOpEntry>() {
+					@Override
+					public void onPartialResult(List<AppOpEntry> result) {
+						bh.consume(result);
+					}
+				});
+	}
+
+	@Benchmark
+	public void buildStateAllTemplates(Blackhole bh)
+	{
+		for(OpsTemplate tpl : AppOpsState.ALL_TEMPLATES)
+			bh.consume(mState.buildState(tpl));
+	}
+
+	@Benchmark
+	public List<AppOpEntry> buildStateWithChangedOpsOnly() {
+		return mState.buildStateWithChangedOpsOnly();
+	}
+
+	@Benchmark
+	public void buildStateForPackage(Blackhole bh)
+	{
+		for(OpsTemplate tpl : AppOpsState.ALL_TEMPLATES)
+			bh.consume(mState.buildState(tpl, mUid, mPackageName));
+	}
+
+	@Benchmark
+	public AppOpsState.PackageState buildStateForAllTemplates() {
+		return mState.buildStateForAllTemplates(mUid, mPackageName);
+	}
+}
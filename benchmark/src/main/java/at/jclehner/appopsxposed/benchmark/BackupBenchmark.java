@@ -0,0 +1,54 @@
+package at.jclehner.appopsxposed.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlpull.v1.XmlPullParserException;
+
+import at.jclehner.appopsxposed.Backup;
+
+/**
+ * Serialization and parsing of backups. Since the fleet's modes are
+ * restored unchanged, restore() measures parsing and the mode comparison,
+ * but no calls to setMode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BackupBenchmark
+{
+	private byte[] mBackup;
+
+	@Setup
+	public void setUp(FleetState state) throws IOException {
+		mBackup = create(state).toByteArray();
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream create(FleetState state) throws IOException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Backup.create(state.context, out);
+		return out;
+	}
+
+	@Benchmark
+	public void restore(FleetState state) throws IOException, XmlPullParserException {
+		Backup.restore(state.context, new ByteArrayInputStream(mBackup));
+	}
+}
@@ -0,0 +1,123 @@
+package at.jclehner.appopsxposed.benchmark;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.jclehner.appopsxposed.util.AppOpsManagerWrapper;
+
+/**
+ * Cost of AppOpsManagerWrapper's static initializer. Each invocation loads
+ * the app's util classes into a new class loader, so that the initializers
+ * run again. Loading is done beforehand, so only the initialization of
+ * AppOpsManagerWrapper, and of the classes it uses, is measured.
+ * <p>
+ * To compare builds, compile each one into a directory of its own, and pass
+ * these using -p appClasses=dir1,dir2. By default, the classes the benchmarks
+ * were built against are used.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassInitBenchmark
+{
+	private static final String APP_PACKAGE = "at.jclehner.appopsxposed.";
+	private static final String BENCHMARK_PACKAGE = APP_PACKAGE + "benchmark.";
+
+	@Param({ "" })
+	public String appClasses;
+
+	private URL mAppClassesUrl;
+	private String[] mUtilClassNames;
+	private Class<?> mClass;
+
+	// Loads the app's classes itself, rather than delegating to its parent
+	private static class AppClassLoader extends URLClassLoader
+	{
+		AppClassLoader(URL url) {
+			super(new URL[] { url }, AppClassLoader.class.getClassLoader());
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+		{
+			if(!name.startsWith(APP_PACKAGE) || name.startsWith(BENCHMARK_PACKAGE))
+				return super.loadClass(name, resolve);
+
+			synchronized(getClassLoadingLock(name))
+			{
+				Class<?> c = findLoadedClass(name);
+				if(c == null)
+					c = findClass(name);
+
+				if(resolve)
+					resolveClass(c);
+
+				return c;
+			}
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUpTrial() throws MalformedURLException
+	{
+		if(appClasses.isEmpty())
+		{
+			mAppClassesUrl = AppOpsManagerWrapper.class.getProtectionDomain()
+					.getCodeSource().getLocation();
+		}
+		else
+			mAppClassesUrl = new File(appClasses).toURI().toURL();
+
+		final String utilPackage = AppOpsManagerWrapper.class.getPackage().getName();
+		final File utilDir = new File(new File(mAppClassesUrl.getPath()),
+				utilPackage.replace('.', File.separatorChar));
+
+		final String[] files = utilDir.list();
+		if(files == null)
+			throw new IllegalStateException("Not a directory: " + utilDir);
+
+		mUtilClassNames = new String[files.length];
+		for(int i = 0; i != files.length; ++i)
+		{
+			if(files[i].endsWith(".class"))
+				mUtilClassNames[i] = utilPackage + "." + files[i].substring(0, files[i].length() - 6);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpInvocation() throws ClassNotFoundException
+	{
+		final ClassLoader loader = new AppClassLoader(mAppClassesUrl);
+		for(String name : mUtilClassNames)
+		{
+			if(name != null)
+				Class.forName(name, false, loader);
+		}
+
+		mClass = Class.forName(AppOpsManagerWrapper.class.getName(), false, loader);
+	}
+
+	@Benchmark
+	public Class<?> appOpsManagerWrapper() throws ClassNotFoundException {
+		return Class.forName(mClass.getName(), true, mClass.getClassLoader());
+	}
+}
@@ -0,0 +1,139 @@
+package at.jclehner.appopsxposed.benchmark;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.app.AppOpsManager;
+import android.content.Context;
+
+import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.OpEntryWrapper;
+import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.PackageOpsWrapper;
+
+import com.android.internal.app.IAppOpsService;
+
+/**
+ * IAppOpsService serving the ops of a {@link Fleet}'s backend. Going through
+ * AppOpsManager means that the reflective conversion done by
+ * AppOpsManagerWrapper's default backend is measured as well.
+ */
+public class FakeAppOpsService implements InvocationHandler
+{
+	private final Fleet mFleet;
+
+	public FakeAppOpsService(Fleet fleet) {
+		mFleet = fleet;
+	}
+
+	/**
+	 * Creates an AppOpsManager that talks to a FakeAppOpsService.
+	 */
+	public static AppOpsManager createManager(Context context, Fleet fleet)
+	{
+		final IAppOpsService service = (IAppOpsService) Proxy.newProxyInstance(
+				IAppOpsService.class.getClassLoader(), new Class<?>[] { IAppOpsService.class },
+				new FakeAppOpsService(fleet));
+
+		try
+		{
+			final Constructor<AppOpsManager> ctor = AppOpsManager.class.getDeclaredConstructor(
+					Context.class, IAppOpsService.class);
+			ctor.setAccessible(true);
+			return ctor.newInstance(context, service);
+		}
+		catch(ReflectiveOperationException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args)
+	{
+		switch(method.getName())
+		{
+			case "checkOperation":
+			case "noteOperation":
+				return checkOperation((Integer) args[0], (Integer) args[1], (String) args[2]);
+
+			case "getPackagesForOps":
+				return getPackagesForOps((int[]) args[0]);
+
+			case "getOpsForPackage":
+				return getOpsForPackage((Integer) args[0], (String) args[1], (int[]) args[2]);
+
+			case "setMode":
+				setMode((Integer) args[0], (Integer) args[1], (String) args[2], (Integer) args[3]);
+				return null;
+
+			case "permissionToOpCode":
+				return permissionToOpCode((String) args[0]);
+
+			case "asBinder":
+				return null;
+
+			case "hashCode":
+				return System.identityHashCode(proxy);
+
+			case "equals":
+				return proxy == args[0];
+
+			case "toString":
+				return "FakeAppOpsService";
+
+			default:
+				throw new UnsupportedOperationException(method.getName());
+		}
+	}
+
+	private int checkOperation(int op, int uid, String packageName) {
+		return mFleet.getBackend().checkOpNoThrow(op, uid, packageName);
+	}
+
+	private List<AppOpsManager.PackageOps> getPackagesForOps(int[] ops) {
+		return toPackageOps(mFleet.getBackend().getPackagesForOps(ops));
+	}
+
+	private List<AppOpsManager.PackageOps> getOpsForPackage(int uid, String packageName, int[] ops) {
+		return toPackageOps(mFleet.getBackend().getOpsForPackage(uid, packageName, ops));
+	}
+
+	private void setMode(int op, int uid, String packageName, int mode) {
+		mFleet.getBackend().setMode(op, uid, packageName, mode);
+	}
+
+	private int permissionToOpCode(String permission)
+	{
+		for(int op = 0; op != AppOpsManager._NUM_OP; ++op)
+		{
+			if(permission.equals(AppOpsManager.opToPermission(op)))
+				return op;
+		}
+
+		return AppOpsManager.OP_NONE;
+	}
+
+	private static List<AppOpsManager.PackageOps> toPackageOps(List<PackageOpsWrapper> pkgs)
+	{
+		if(pkgs.isEmpty())
+			return null;
+
+		final List<AppOpsManager.PackageOps> ret = new ArrayList<>(pkgs.size());
+		for(PackageOpsWrapper pkg : pkgs)
+		{
+			final List<AppOpsManager.OpEntry> entries = new ArrayList<>(pkg.getOps().size());
+			for(OpEntryWrapper op : pkg.getOps())
+			{
+				entries.add(new AppOpsManager.OpEntry(op.getOp(), op.getMode(), op.getTime(),
+						op.getRejectTime(), op.getDuration(), -1, null));
+			}
+
+			ret.add(new AppOpsManager.PackageOps(pkg.getPackageName(), pkg.getUid(), entries));
+		}
+
+		return ret;
+	}
+}
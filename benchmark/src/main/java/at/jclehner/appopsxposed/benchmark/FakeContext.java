@@ -0,0 +1,107 @@
+package at.jclehner.appopsxposed.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import at.jclehner.appopsxposed.util.Constants;
+
+/**
+ * Context of the AppOpsXposed app, backed by a {@link FakePackageManager}
+ * and an AppOpsManager talking to a {@link FakeAppOpsService}.
+ */
+public class FakeContext extends ContextWrapper
+{
+	private final Fleet mFleet;
+	private final Resources mResources;
+	private final PackageManager mPm;
+	private final AppOpsManager mAppOps;
+
+	// AppInfoCache is a singleton, which keeps using the cache directory of
+	// the first context, so all contexts share one. It's deleted on exit.
+	private static File sCacheDir;
+
+	public FakeContext(Fleet fleet)
+	{
+		super(null);
+		mFleet = fleet;
+		mResources = new FakeResources();
+		mPm = FakePackageManager.create(fleet, mResources);
+		mAppOps = FakeAppOpsService.createManager(this, fleet);
+	}
+
+	public Fleet getFleet() {
+		return mFleet;
+	}
+
+	@Override
+	public Context getApplicationContext() {
+		return this;
+	}
+
+	@Override
+	public String getPackageName() {
+		return Constants.MODULE_PACKAGE;
+	}
+
+	@Override
+	public File getCacheDir()
+	{
+		synchronized(FakeContext.class)
+		{
+			if(sCacheDir == null)
+			{
+				try
+				{
+					sCacheDir = Files.createTempDirectory("aox-cache").toFile();
+				}
+				catch(IOException e)
+				{
+					throw new IllegalStateException(e);
+				}
+
+				final File dir = sCacheDir;
+				Runtime.getRuntime().addShutdownHook(new Thread() {
+					@Override
+					public void run() {
+						deleteRecursively(dir);
+					}
+				});
+			}
+
+			return sCacheDir;
+		}
+	}
+
+	@Override
+	public Resources getResources() {
+		return mResources;
+	}
+
+	@Override
+	public PackageManager getPackageManager() {
+		return mPm;
+	}
+
+	@Override
+	public Object getSystemService(String name) {
+		return APP_OPS_SERVICE.equals(name) ? mAppOps : null;
+	}
+
+	private static void deleteRecursively(File file)
+	{
+		final File[] children = file.listFiles();
+		if(children != null)
+		{
+			for(File child : children)
+				deleteRecursively(child);
+		}
+
+		file.delete();
+	}
+}
@@ -0,0 +1,196 @@
+package at.jclehner.appopsxposed.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PermissionInfo;
+import android.content.res.Resources;
+import at.jclehner.appopsxposed.util.Constants;
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.implementation.ExceptionMethod;
+import net.bytebuddy.matcher.ElementMatchers;
+
+/**
+ * PackageManager serving the packages of a {@link Fleet}. Like the real
+ * PackageManager, each call returns newly created objects. Calls that would
+ * be IPCs on a device go through the fleet's {@link Fleet#getPackageManagerIpc()}.
+ * <p>
+ * Only the methods used by the code being benchmarked are implemented; all
+ * others throw an UnsupportedOperationException. Use {@link #create(Fleet, Resources)}
+ * to obtain an instance.
+ */
+public abstract class FakePackageManager extends PackageManager
+{
+	private static Class<? extends FakePackageManager> sImplClass;
+
+	private final Fleet mFleet;
+	private final Resources mResources;
+
+	public static synchronized FakePackageManager create(Fleet fleet, Resources resources)
+	{
+		if(sImplClass == null)
+		{
+			sImplClass = new ByteBuddy()
+					.subclass(FakePackageManager.class)
+					.method(ElementMatchers.isAbstract())
+					.intercept(ExceptionMethod.throwing(UnsupportedOperationException.class))
+					.make()
+					.load(FakePackageManager.class.getClassLoader(), ClassLoadingStrategy.Default.WRAPPER)
+					.getLoaded();
+		}
+
+		try
+		{
+			return sImplClass.getConstructor(Fleet.class, Resources.class).newInstance(fleet, resources);
+		}
+		catch(ReflectiveOperationException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	protected FakePackageManager(Fleet fleet, Resources resources)
+	{
+		mFleet = fleet;
+		mResources = resources;
+	}
+
+	@Override
+	public PackageInfo getPackageInfo(String packageName, int flags) throws NameNotFoundException
+	{
+		simulateIpc();
+		return toPackageInfo(getPackage(packageName), flags);
+	}
+
+	@Override
+	public ApplicationInfo getApplicationInfo(String packageName, int flags) throws NameNotFoundException
+	{
+		simulateIpc();
+		return toApplicationInfo(getPackage(packageName));
+	}
+
+	@Override
+	public List<PackageInfo> getInstalledPackages(int flags)
+	{
+		simulateIpc();
+
+		final List<PackageInfo> ret = new ArrayList<>(mFleet.size());
+		for(Fleet.Package pkg : mFleet.getPackages())
+			ret.add(toPackageInfo(pkg, flags));
+
+		return ret;
+	}
+
+	@Override
+	public List<ApplicationInfo> getInstalledApplications(int flags)
+	{
+		simulateIpc();
+
+		final List<ApplicationInfo> ret = new ArrayList<>(mFleet.size());
+		for(Fleet.Package pkg : mFleet.getPackages())
+			ret.add(toApplicationInfo(pkg));
+
+		return ret;
+	}
+
+	@Override
+	public List<PackageInfo> getPackagesHoldingPermissions(String[] permissions, int flags)
+	{
+		simulateIpc();
+
+		final List<PackageInfo> ret = new ArrayList<>();
+		for(Fleet.Package pkg : mFleet.getPackages())
+		{
+			if(holdsAny(pkg, permissions))
+				ret.add(toPackageInfo(pkg, flags | GET_PERMISSIONS));
+		}
+
+		return ret;
+	}
+
+	@Override
+	public PermissionInfo getPermissionInfo(String name, int flags) throws NameNotFoundException
+	{
+		simulateIpc();
+
+		final PermissionInfo pi = new PermissionInfo();
+		pi.name = name;
+		pi.packageName = "android";
+		pi.nonLocalizedLabel = "Label of " + name;
+		return pi;
+	}
+
+	@Override
+	public CharSequence getApplicationLabel(ApplicationInfo info) {
+		return info.loadLabel(this);
+	}
+
+	@Override
+	public Resources getResourcesForApplication(String appPackageName) throws NameNotFoundException
+	{
+		if(!Constants.MODULE_PACKAGE.equals(appPackageName))
+			throw new NameNotFoundException(appPackageName);
+
+		return mResources;
+	}
+
+	private void simulateIpc() {
+		mFleet.getPackageManagerIpc().call();
+	}
+
+	private Fleet.Package getPackage(String packageName) throws NameNotFoundException
+	{
+		final Fleet.Package pkg = mFleet.getPackage(packageName);
+		if(pkg == null)
+			throw new NameNotFoundException(packageName);
+
+		return pkg;
+	}
+
+	private ApplicationInfo toApplicationInfo(Fleet.Package pkg)
+	{
+		final ApplicationInfo ai = new ApplicationInfo();
+		ai.packageName = pkg.packageName;
+		ai.uid = pkg.uid;
+		ai.enabled = true;
+		ai.sourceDir = ai.publicSourceDir = mFleet.getApkFile().getPath();
+		ai.nonLocalizedLabel = pkg.label;
+		return ai;
+	}
+
+	private PackageInfo toPackageInfo(Fleet.Package pkg, int flags)
+	{
+		final PackageInfo pi = new PackageInfo();
+		pi.packageName = pkg.packageName;
+		pi.applicationInfo = toApplicationInfo(pkg);
+
+		if((flags & GET_PERMISSIONS) != 0)
+		{
+			pi.requestedPermissions = pkg.requestedPermissions.clone();
+			pi.requestedPermissionsFlags = new int[pi.requestedPermissions.length];
+
+			for(int i = 0; i != pi.requestedPermissionsFlags.length; ++i)
+				pi.requestedPermissionsFlags[i] = PackageInfo.REQUESTED_PERMISSION_GRANTED;
+		}
+
+		return pi;
+	}
+
+	private static boolean holdsAny(Fleet.Package pkg, String[] permissions)
+	{
+		for(String requested : pkg.requestedPermissions)
+		{
+			for(String permission : permissions)
+			{
+				if(requested.equals(permission))
+					return true;
+			}
+		}
+
+		return false;
+	}
+}
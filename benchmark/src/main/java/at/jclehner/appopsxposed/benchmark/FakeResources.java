@@ -0,0 +1,59 @@
+package at.jclehner.appopsxposed.benchmark;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+import android.app.AppOpsManager;
+import android.content.res.Resources;
+import at.jclehner.appopsxposed.util.Constants;
+
+/**
+ * Resources containing just the op label and summary strings that
+ * OpsLabelHelper looks up by name.
+ */
+public class FakeResources extends Resources
+{
+	private final HashMap<String, Integer> mIds = new HashMap<>();
+	private final HashMap<Integer, String> mStrings = new HashMap<>();
+
+	public FakeResources()
+	{
+		super((ClassLoader) null);
+
+		for(int op = 0; op != AppOpsManager._NUM_OP; ++op)
+		{
+			final String name = AppOpsManager.opToName(op).toLowerCase(Locale.US);
+			addString("app_ops_labels_" + name, "label of " + name);
+			addString("app_ops_summaries_" + name, "summary of " + name);
+		}
+	}
+
+	@Override
+	public int getIdentifier(String name, String defType, String defPackage)
+	{
+		final Integer id = mIds.get(name);
+		return id != null ? id : 0;
+	}
+
+	@Override
+	public CharSequence getText(int id) throws NotFoundException {
+		return getString(id);
+	}
+
+	@Override
+	public String getString(int id) throws NotFoundException
+	{
+		final String str = mStrings.get(id);
+		if(str == null)
+			throw new NotFoundException("String resource ID #0x" + Integer.toHexString(id));
+
+		return str;
+	}
+
+	private void addString(String name, String value)
+	{
+		final int id = 0x7f060000 + mStrings.size();
+		mIds.put(Constants.MODULE_PACKAGE + ":string/" + name, id);
+		mStrings.put(id, value);
+	}
+}
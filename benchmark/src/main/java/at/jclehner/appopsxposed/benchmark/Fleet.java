@@ -0,0 +1,123 @@
+package at.jclehner.appopsxposed.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import android.app.AppOpsManager;
+import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.OpEntryWrapper;
+import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.PackageOpsWrapper;
+
+/**
+ * A synthetic set of installed packages, with their ops kept in an
+ * {@link InMemoryAppOpsBackend}. The fleet is generated from a fixed seed,
+ * so that all runs see the same data.
+ * <p>
+ * Besides the permissions of its ops, each package requests the permissions
+ * of as many other ops, so that AppOpsState.buildState also has to deal with
+ * ops that are only known through a package's permissions.
+ */
+public class Fleet
+{
+	public static final long DEFAULT_SEED = 0x414f58;
+
+	public static class Package
+	{
+		public final String packageName;
+		public final int uid;
+		public final String label;
+		public final String[] requestedPermissions;
+
+		Package(String packageName, int uid, String label, String[] requestedPermissions)
+		{
+			this.packageName = packageName;
+			this.uid = uid;
+			this.label = label;
+			this.requestedPermissions = requestedPermissions;
+		}
+	}
+
+	private final InMemoryAppOpsBackend mBackend;
+	private final SimulatedIpc mPackageManagerIpc = new SimulatedIpc();
+	private final Map<String, Package> mPackages = new LinkedHashMap<>();
+	private final File mApkFile;
+
+	public Fleet(int packageCount, int opsPerPackage) {
+		this(packageCount, opsPerPackage, DEFAULT_SEED);
+	}
+
+	public Fleet(int packageCount, int opsPerPackage, long seed)
+	{
+		mBackend = InMemoryAppOpsBackend.generate(packageCount, opsPerPackage, seed);
+
+		final Random random = new Random(seed);
+		int i = 0;
+
+		for(String packageName : mBackend.getPackageNames())
+		{
+			final int uid = mBackend.getUid(packageName);
+			final Set<String> perms = new LinkedHashSet<>();
+
+			for(PackageOpsWrapper pkg : mBackend.getOpsForPackage(uid, packageName, null))
+			{
+				for(OpEntryWrapper op : pkg.getOps())
+					addPermission(perms, op.getOp());
+			}
+
+			for(int k = 0; k != opsPerPackage; ++k)
+				addPermission(perms, random.nextInt(AppOpsManager._NUM_OP));
+
+			mPackages.put(packageName, new Package(packageName, uid, "App #" + i++,
+					perms.toArray(new String[perms.size()])));
+		}
+
+		// AppOpsState only loads an app's label if its apk exists
+		try
+		{
+			mApkFile = File.createTempFile("fleet", ".apk");
+			mApkFile.deleteOnExit();
+		}
+		catch(IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public InMemoryAppOpsBackend getBackend() {
+		return mBackend;
+	}
+
+	/**
+	 * Returns the simulated cost of calls to the fleet's {@link FakePackageManager}.
+	 */
+	public SimulatedIpc getPackageManagerIpc() {
+		return mPackageManagerIpc;
+	}
+
+	public int size() {
+		return mPackages.size();
+	}
+
+	public Package getPackage(String packageName) {
+		return mPackages.get(packageName);
+	}
+
+	public Iterable<Package> getPackages() {
+		return mPackages.values();
+	}
+
+	public File getApkFile() {
+		return mApkFile;
+	}
+
+	private static void addPermission(Set<String> perms, int op)
+	{
+		final String perm = AppOpsManager.opToPermission(op);
+		if(perm != null)
+			perms.add(perm);
+	}
+}
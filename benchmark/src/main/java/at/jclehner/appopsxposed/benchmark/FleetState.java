@@ -0,0 +1,69 @@
+package at.jclehner.appopsxposed.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import at.jclehner.appopsxposed.util.AppOpsManagerWrapper;
+import at.jclehner.appopsxposed.util.AppOpsSnapshot;
+
+/**
+ * Benchmark state holding a {@link FakeContext} for a fleet of the
+ * specified size.
+ * <p>
+ * With backend=service, AppOpsManagerWrapper goes through AppOpsManager and
+ * a {@link FakeAppOpsService}, like it does on a device. With backend=direct,
+ * it uses the fleet's InMemoryAppOpsBackend directly.
+ * <p>
+ * ipcLatencyMicros and pmLatencyMicros set the simulated cost of each call
+ * to AppOpsService and PackageManager, respectively.
+ */
+@State(Scope.Benchmark)
+public class FleetState
+{
+	@Param({ "50", "500", "5000" })
+	public int packages;
+
+	@Param({ "10" })
+	public int opsPerPackage;
+
+	@Param({ "0" })
+	public int ipcLatencyMicros;
+
+	@Param({ "0" })
+	public int pmLatencyMicros;
+
+	@Param({ "service" })
+	public String backend;
+
+	public Fleet fleet;
+	public FakeContext context;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		fleet = new Fleet(packages, opsPerPackage);
+		fleet.getBackend().setIpcLatency(ipcLatencyMicros, TimeUnit.MICROSECONDS);
+		fleet.getPackageManagerIpc().setLatency(pmLatencyMicros, TimeUnit.MICROSECONDS);
+		context = new FakeContext(fleet);
+
+		if("direct".equals(backend))
+			AppOpsManagerWrapper.setBackend(fleet.getBackend());
+		else if(!"service".equals(backend))
+			throw new IllegalArgumentException("Unknown backend " + backend);
+
+		// The snapshot is shared by the whole process, so make sure we
+		// don't see the previous trial's fleet.
+		AppOpsSnapshot.invalidate();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		AppOpsManagerWrapper.setBackend(null);
+	}
+}
@@ -0,0 +1,283 @@
+package at.jclehner.appopsxposed.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import at.jclehner.appopsxposed.util.AppOpsManagerWrapper;
+import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.OpEntryWrapper;
+import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.PackageOpsWrapper;
+
+/**
+ * AppOpsManagerWrapper backend that keeps all ops in memory, for load
+ * testing the app's code paths off-device. Every call can be delayed
+ * by a fixed amount of time, to simulate the cost of an IPC.
+ * <p>
+ * Like AppOpsService, it returns new objects on each call, and only knows
+ * about ops that have been used or changed.
+ */
+public class InMemoryAppOpsBackend implements AppOpsManagerWrapper.Backend
+{
+	public static final int FIRST_UID = 10000;
+
+	private static class PackageState
+	{
+		final int uid;
+		final String packageName;
+
+		// sorted by op
+		int[] ops = new int[0];
+		int[] modes = new int[0];
+		long[] times = new long[0];
+
+		PackageState(int uid, String packageName)
+		{
+			this.uid = uid;
+			this.packageName = packageName;
+		}
+
+		void setOp(int op, int mode, long time)
+		{
+			int i = Arrays.binarySearch(ops, op);
+			if(i < 0)
+			{
+				i = -i - 1;
+				ops = insert(ops, i, op);
+				modes = insert(modes, i, mode);
+				times = insert(times, i, time);
+			}
+			else
+			{
+				modes[i] = mode;
+				times[i] = time;
+			}
+		}
+
+		int getMode(int op)
+		{
+			final int i = Arrays.binarySearch(ops, op);
+			return i >= 0 ? modes[i] : -1;
+		}
+
+		PackageOpsWrapper toPackageOps(int[] filter)
+		{
+			final List<OpEntryWrapper> entries = new ArrayList<>(ops.length);
+			for(int i = 0; i != ops.length; ++i)
+			{
+				if(filter == null || contains(filter, ops[i]))
+					entries.add(new OpEntryWrapper(ops[i], modes[i], times[i], 0, 0));
+			}
+
+			return entries.isEmpty() ? null : new PackageOpsWrapper(packageName, uid, entries);
+		}
+	}
+
+	private final LinkedHashMap<String, PackageState> mPackages = new LinkedHashMap<>();
+	private final SimulatedIpc mIpc = new SimulatedIpc();
+
+	/**
+	 * Creates a backend with the specified number of packages, named
+	 * com.example.app0, com.example.app1, etc., with uids starting at
+	 * {@link #FIRST_UID}. Every tenth package has no ops; all others have
+	 * opsPerPackage ops, of which most are allowed, and about half have
+	 * been used within the past week. The same seed yields the same ops.
+	 */
+	public static InMemoryAppOpsBackend generate(int packageCount, int opsPerPackage, long seed)
+	{
+		final InMemoryAppOpsBackend backend = new InMemoryAppOpsBackend();
+		final Random random = new Random(seed);
+		final long now = System.currentTimeMillis();
+		final int numOps = AppOpsManagerWrapper._NUM_OP;
+
+		final List<Integer> allOps = new ArrayList<>(numOps);
+		for(int op = 0; op != numOps; ++op)
+			allOps.add(op);
+
+		for(int i = 0; i != packageCount; ++i)
+		{
+			final String packageName = "com.example.app" + i;
+			final int uid = FIRST_UID + i;
+
+			backend.addPackage(uid, packageName);
+			if(i % 10 == 9)
+				continue;
+
+			Collections.shuffle(allOps, random);
+
+			for(int op : allOps.subList(0, Math.min(opsPerPackage, numOps)))
+			{
+				final int mode;
+				final int r = random.nextInt(100);
+				if(r < 85)
+					mode = AppOpsManagerWrapper.MODE_ALLOWED;
+				else if(r < 95)
+					mode = AppOpsManagerWrapper.MODE_IGNORED;
+				else
+					mode = AppOpsManagerWrapper.MODE_ERRORED;
+
+				final long time = random.nextBoolean() ? 0 : now - random.nextInt(7 * 24 * 3600) * 1000L;
+				backend.setOp(uid, packageName, op, mode, time);
+			}
+		}
+
+		return backend;
+	}
+
+	/**
+	 * Sets the time each call to the backend takes, in addition to the
+	 * actual work. See {@link SimulatedIpc#setLatency(long, TimeUnit)}.
+	 */
+	public void setIpcLatency(long latency, TimeUnit unit) {
+		mIpc.setLatency(latency, unit);
+	}
+
+	/**
+	 * Returns the number of calls made to this backend so far.
+	 */
+	public long getIpcCount() {
+		return mIpc.getCount();
+	}
+
+	public synchronized void addPackage(int uid, String packageName)
+	{
+		if(!mPackages.containsKey(packageName))
+			mPackages.put(packageName, new PackageState(uid, packageName));
+	}
+
+	public synchronized void removePackage(String packageName) {
+		mPackages.remove(packageName);
+	}
+
+	/**
+	 * Sets an op's mode and time of last use, adding the package if it
+	 * doesn't exist yet.
+	 */
+	public synchronized void setOp(int uid, String packageName, int op, int mode, long time)
+	{
+		addPackage(uid, packageName);
+		mPackages.get(packageName).setOp(op, mode, time);
+	}
+
+	public synchronized List<String> getPackageNames() {
+		return new ArrayList<>(mPackages.keySet());
+	}
+
+	/**
+	 * Returns the uid of the specified package, or -1 if there's no such package.
+	 */
+	public synchronized int getUid(String packageName)
+	{
+		final PackageState pkg = mPackages.get(packageName);
+		return pkg != null ? pkg.uid : -1;
+	}
+
+	@Override
+	public List<PackageOpsWrapper> getOpsForPackage(int uid, String packageName, int[] ops)
+	{
+		simulateIpc();
+
+		final List<PackageOpsWrapper> ret = new ArrayList<>(1);
+
+		synchronized(this)
+		{
+			final PackageState pkg = getPackage(uid, packageName);
+			final PackageOpsWrapper pkgOps = pkg != null ? pkg.toPackageOps(ops) : null;
+			if(pkgOps != null)
+				ret.add(pkgOps);
+		}
+
+		return ret;
+	}
+
+	@Override
+	public List<PackageOpsWrapper> getPackagesForOps(int[] ops)
+	{
+		simulateIpc();
+
+		final List<PackageOpsWrapper> ret = new ArrayList<>();
+
+		synchronized(this)
+		{
+			for(PackageState pkg : mPackages.values())
+			{
+				final PackageOpsWrapper pkgOps = pkg.toPackageOps(ops);
+				if(pkgOps != null)
+					ret.add(pkgOps);
+			}
+		}
+
+		return ret;
+	}
+
+	@Override
+	public int checkOpNoThrow(int op, int uid, String packageName)
+	{
+		simulateIpc();
+
+		synchronized(this)
+		{
+			final PackageState pkg = getPackage(uid, packageName);
+			final int mode = pkg != null ? pkg.getMode(op) : -1;
+			return mode != -1 ? mode : AppOpsManagerWrapper.opToDefaultMode(op);
+		}
+	}
+
+	@Override
+	public void setMode(int code, int uid, String packageName, int mode)
+	{
+		simulateIpc();
+
+		synchronized(this)
+		{
+			final PackageState pkg = getPackage(uid, packageName);
+			if(pkg == null)
+				throw new SecurityException("Specified package " + packageName + " under uid " + uid + " but it is not");
+
+			final int i = Arrays.binarySearch(pkg.ops, code);
+			pkg.setOp(code, mode, i >= 0 ? pkg.times[i] : 0);
+		}
+	}
+
+	private PackageState getPackage(int uid, String packageName)
+	{
+		final PackageState pkg = mPackages.get(packageName);
+		return pkg != null && pkg.uid == uid ? pkg : null;
+	}
+
+	private void simulateIpc() {
+		mIpc.call();
+	}
+
+	private static int[] insert(int[] array, int index, int value)
+	{
+		final int[] ret = new int[array.length + 1];
+		System.arraycopy(array, 0, ret, 0, index);
+		System.arraycopy(array, index, ret, index + 1, array.length - index);
+		ret[index] = value;
+		return ret;
+	}
+
+	private static long[] insert(long[] array, int index, long value)
+	{
+		final long[] ret = new long[array.length + 1];
+		System.arraycopy(array, 0, ret, 0, index);
+		System.arraycopy(array, index, ret, index + 1, array.length - index);
+		ret[index] = value;
+		return ret;
+	}
+
+	private static boolean contains(int[] array, int value)
+	{
+		for(int v : array)
+		{
+			if(v == value)
+				return true;
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,60 @@
+package at.jclehner.appopsxposed.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.app.AppOpsManager;
+import at.jclehner.appopsxposed.util.ObjectWrapper;
+
+/**
+ * Cost of the reflective accessors that all wrappers are built upon.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectWrapperBenchmark
+{
+	private AppOpsManager.OpEntry mEntry;
+	private ObjectWrapper mWrapper;
+
+	@Setup
+	public void setUp()
+	{
+		mEntry = new AppOpsManager.OpEntry(AppOpsManager.OP_CAMERA, AppOpsManager.MODE_ALLOWED,
+				System.currentTimeMillis(), 0, 0, -1, null);
+		mWrapper = new ObjectWrapper(mEntry);
+	}
+
+	@Benchmark
+	public int call() {
+		return mWrapper.<Integer>call("getMode");
+	}
+
+	@Benchmark
+	public long callWithNewWrapper() {
+		return new ObjectWrapper(mEntry).<Long>call("getTime");
+	}
+
+	@Benchmark
+	public int get() {
+		return mWrapper.<Integer>get("mMode");
+	}
+
+	@Benchmark
+	public int getStatic() {
+		return ObjectWrapper.<Integer>getStatic(AppOpsManager.class, "OP_CAMERA");
+	}
+}
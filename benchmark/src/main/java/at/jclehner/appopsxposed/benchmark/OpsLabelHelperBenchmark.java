@@ -0,0 +1,46 @@
+package at.jclehner.appopsxposed.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.jclehner.appopsxposed.util.OpsLabelHelper;
+
+/**
+ * Lookup of the op labels and summaries, as done whenever an AppOpsState
+ * is created.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpsLabelHelperBenchmark
+{
+	private FakeContext mContext;
+
+	@Setup
+	public void setUp() {
+		mContext = new FakeContext(new Fleet(1, 1));
+	}
+
+	@Benchmark
+	public String[] getOpLabels() {
+		return OpsLabelHelper.getOpLabels(mContext);
+	}
+
+	@Benchmark
+	public String[] getOpSummaries() {
+		return OpsLabelHelper.getOpSummaries(mContext);
+	}
+}
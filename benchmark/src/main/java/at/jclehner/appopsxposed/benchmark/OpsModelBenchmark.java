@@ -0,0 +1,68 @@
+package at.jclehner.appopsxposed.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.app.AppOpsManager;
+import at.jclehner.appopsxposed.util.AppOpsManagerWrapper;
+import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.PackageOpsWrapper;
+import at.jclehner.appopsxposed.util.AppOpsSnapshot;
+
+/**
+ * Conversion of AppOpsManager's results into the wrapper classes, and
+ * building of the AppOpsSnapshot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpsModelBenchmark
+{
+	private List<AppOpsManager.PackageOps> mRawPackages;
+	private AppOpsManagerWrapper mAppOps;
+
+	@Setup
+	public void setUp(FleetState state)
+	{
+		final AppOpsManager appOps = (AppOpsManager) state.context.getSystemService(
+				FakeContext.APP_OPS_SERVICE);
+
+		mRawPackages = appOps.getPackagesForOps(null);
+		mAppOps = AppOpsManagerWrapper.from(state.context);
+	}
+
+	@Benchmark
+	public List<PackageOpsWrapper> convertList() {
+		return PackageOpsWrapper.convertList(mRawPackages);
+	}
+
+	@Benchmark
+	public List<PackageOpsWrapper> getPackagesForOps() {
+		return mAppOps.getPackagesForOps(null);
+	}
+
+	@Benchmark
+	public List<PackageOpsWrapper> getAllPackagesForOps() {
+		return mAppOps.getAllPackagesForOps(null);
+	}
+
+	@Benchmark
+	public AppOpsSnapshot buildSnapshot(FleetState state)
+	{
+		AppOpsSnapshot.invalidate();
+		return AppOpsSnapshot.get(state.context);
+	}
+}
@@ -0,0 +1,44 @@
+package at.jclehner.appopsxposed.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulates the cost of calls to a system service, and counts them.
+ */
+public class SimulatedIpc
+{
+	private final AtomicLong mCount = new AtomicLong();
+	private volatile long mLatencyNanos = 0;
+
+	/**
+	 * Sets the time each call takes, in addition to the actual work. The
+	 * delay is implemented by busy-waiting, so it is accurate even for
+	 * values in the microsecond range.
+	 */
+	public void setLatency(long latency, TimeUnit unit) {
+		mLatencyNanos = unit.toNanos(latency);
+	}
+
+	/**
+	 * Returns the number of calls made so far.
+	 */
+	public long getCount() {
+		return mCount.get();
+	}
+
+	public void call()
+	{
+		mCount.incrementAndGet();
+
+		final long latency = mLatencyNanos;
+		if(latency == 0)
+			return;
+
+		final long end = System.nanoTime() + latency;
+		while(System.nanoTime() - end < 0)
+		{
+			// busy-wait
+		}
+	}
+}
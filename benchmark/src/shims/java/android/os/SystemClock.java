@@ -0,0 +1,49 @@
+package android.os;
+
+/**
+ * Host replacement for android.os.SystemClock, based on System.nanoTime().
+ */
+public final class SystemClock
+{
+	private SystemClock() {}
+
+	public static void sleep(long ms)
+	{
+		try
+		{
+			Thread.sleep(ms);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public static boolean setCurrentTimeMillis(long millis) {
+		return false;
+	}
+
+	public static long uptimeMillis() {
+		return System.nanoTime() / 1000000;
+	}
+
+	public static long elapsedRealtime() {
+		return System.nanoTime() / 1000000;
+	}
+
+	public static long elapsedRealtimeNanos() {
+		return System.nanoTime();
+	}
+
+	public static long currentThreadTimeMillis() {
+		return System.nanoTime() / 1000000;
+	}
+
+	public static long currentThreadTimeMicro() {
+		return System.nanoTime() / 1000;
+	}
+
+	public static long currentTimeMicro() {
+		return System.currentTimeMillis() * 1000;
+	}
+}
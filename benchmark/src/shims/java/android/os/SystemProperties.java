@@ -0,0 +1,48 @@
+package android.os;
+
+/**
+ * Host replacement for the native-backed system property store. Only the
+ * properties read during class initialization of android.os.Build are
+ * provided.
+ */
+public class SystemProperties
+{
+	public static final int PROP_NAME_MAX = 31;
+	public static final int PROP_VALUE_MAX = 91;
+
+	public static String get(String key) {
+		return get(key, "");
+	}
+
+	public static String get(String key, String def)
+	{
+		if(key.startsWith("ro.product.cpu.abilist"))
+			return "x86_64";
+		else if(key.equals("ro.build.version.codename") || key.equals("ro.build.version.all_codenames"))
+			return "REL";
+
+		return def;
+	}
+
+	public static int getInt(String key, int def)
+	{
+		if(key.equals("ro.build.version.sdk"))
+			return 25;
+
+		return def;
+	}
+
+	public static long getLong(String key, long def) {
+		return def;
+	}
+
+	public static boolean getBoolean(String key, boolean def) {
+		return def;
+	}
+
+	public static void set(String key, String val) {
+		throw new UnsupportedOperationException();
+	}
+
+	public static void addChangeCallback(Runnable callback) {}
+}
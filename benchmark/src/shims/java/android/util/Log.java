@@ -0,0 +1,109 @@
+package android.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Host replacement for android.util.Log. Only errors are printed, so as
+ * not to flood the benchmark output.
+ */
+public final class Log
+{
+	public static final int VERBOSE = 2;
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+	public static final int ASSERT = 7;
+
+	public static final int LOG_ID_MAIN = 0;
+	public static final int LOG_ID_RADIO = 1;
+	public static final int LOG_ID_EVENTS = 2;
+	public static final int LOG_ID_SYSTEM = 3;
+	public static final int LOG_ID_CRASH = 4;
+
+	private Log() {}
+
+	public static int v(String tag, String msg) {
+		return println(VERBOSE, tag, msg);
+	}
+
+	public static int v(String tag, String msg, Throwable tr) {
+		return println(VERBOSE, tag, msg + '\n' + getStackTraceString(tr));
+	}
+
+	public static int d(String tag, String msg) {
+		return println(DEBUG, tag, msg);
+	}
+
+	public static int d(String tag, String msg, Throwable tr) {
+		return println(DEBUG, tag, msg + '\n' + getStackTraceString(tr));
+	}
+
+	public static int i(String tag, String msg) {
+		return println(INFO, tag, msg);
+	}
+
+	public static int i(String tag, String msg, Throwable tr) {
+		return println(INFO, tag, msg + '\n' + getStackTraceString(tr));
+	}
+
+	public static int w(String tag, String msg) {
+		return println(WARN, tag, msg);
+	}
+
+	public static int w(String tag, String msg, Throwable tr) {
+		return println(WARN, tag, msg + '\n' + getStackTraceString(tr));
+	}
+
+	public static int w(String tag, Throwable tr) {
+		return println(WARN, tag, getStackTraceString(tr));
+	}
+
+	public static int e(String tag, String msg) {
+		return println(ERROR, tag, msg);
+	}
+
+	public static int e(String tag, String msg, Throwable tr) {
+		return println(ERROR, tag, msg + '\n' + getStackTraceString(tr));
+	}
+
+	public static int wtf(String tag, String msg) {
+		return println(ASSERT, tag, msg);
+	}
+
+	public static int wtfStack(String tag, String msg) {
+		return println(ASSERT, tag, msg);
+	}
+
+	public static int wtf(String tag, Throwable tr) {
+		return println(ASSERT, tag, getStackTraceString(tr));
+	}
+
+	public static int wtf(String tag, String msg, Throwable tr) {
+		return println(ASSERT, tag, msg + '\n' + getStackTraceString(tr));
+	}
+
+	public static boolean isLoggable(String tag, int level) {
+		return level >= WARN;
+	}
+
+	public static String getStackTraceString(Throwable tr)
+	{
+		if(tr == null)
+			return "";
+
+		final StringWriter sw = new StringWriter();
+		tr.printStackTrace(new PrintWriter(sw));
+		return sw.toString();
+	}
+
+	public static int println(int priority, String tag, String msg)
+	{
+		if(priority < ERROR)
+			return 0;
+
+		System.err.println(tag + ": " + msg);
+		return msg.length();
+	}
+}
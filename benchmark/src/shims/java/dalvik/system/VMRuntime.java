@@ -0,0 +1,52 @@
+package dalvik.system;
+
+import java.lang.reflect.Array;
+
+/**
+ * Host replacement for dalvik.system.VMRuntime, providing the methods used
+ * by android.os.Build and the android.util containers.
+ */
+public final class VMRuntime
+{
+	private static final VMRuntime THE_ONE = new VMRuntime();
+
+	private int mTargetSdkVersion = 25;
+
+	private VMRuntime() {}
+
+	public static VMRuntime getRuntime() {
+		return THE_ONE;
+	}
+
+	public static String getCurrentInstructionSet() {
+		return "x86_64";
+	}
+
+	public String[] properties() {
+		return new String[0];
+	}
+
+	public String vmInstructionSet() {
+		return getCurrentInstructionSet();
+	}
+
+	public boolean is64Bit() {
+		return true;
+	}
+
+	public synchronized void setTargetSdkVersion(int targetSdkVersion) {
+		mTargetSdkVersion = targetSdkVersion;
+	}
+
+	public synchronized int getTargetSdkVersion() {
+		return mTargetSdkVersion;
+	}
+
+	public Object newNonMovableArray(Class<?> componentType, int length) {
+		return Array.newInstance(componentType, length);
+	}
+
+	public Object newUnpaddedArray(Class<?> componentType, int minLength) {
+		return Array.newInstance(componentType, minLength);
+	}
+}
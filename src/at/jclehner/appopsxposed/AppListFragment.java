@@ -19,11 +19,16 @@
 package at.jclehner.appopsxposed;
 
 import java.lang.reflect.Field;
-import java.text.Collator;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.annotation.TargetApi;
 import android.app.AppOpsManager;
@@ -40,6 +45,9 @@ import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.OperationCanceledException;
+import android.os.Process;
 import android.preference.PreferenceActivity;
 import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
@@ -55,10 +63,14 @@ import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
+import at.jclehner.appopsxposed.util.AppInfoCache;
 import at.jclehner.appopsxposed.util.AppOpsManagerWrapper;
+import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.ModeChange;
 import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.OpEntryWrapper;
 import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.PackageOpsWrapper;
+import at.jclehner.appopsxposed.util.AppOpsSnapshot;
 import at.jclehner.appopsxposed.util.OpsLabelHelper;
+import at.jclehner.appopsxposed.util.ProgressiveResult;
 
 import com.android.settings.applications.AppOpsDetails;
 import com.android.settings.applications.AppOpsState;
@@ -68,15 +80,19 @@ public class AppListFragment extends ListFragment implements LoaderCallbacks<Lis
 	private static final String TAG = "AOX:AppListFragment";
 
 	private AppListAdapter mAdapter;
+	private List<PackageInfoData> mCompleteData;
 	private LayoutInflater mInflater;
 
 	class AppListAdapter extends BaseAdapter
 	{
 		private final PackageManager mPm;
+		private final AppInfoCache mCache;
 		private List<PackageInfoData> mList;
 
-		public AppListAdapter(Context context) {
+		public AppListAdapter(Context context)
+		{
 			mPm = context.getPackageManager();
+			mCache = AppInfoCache.get(context);
 		}
 
 		public void setData(List<PackageInfoData> list)
@@ -122,21 +138,26 @@ public class AppListFragment extends ListFragment implements LoaderCallbacks<Lis
 			else
 				holder = (ViewHolder) convertView.getTag();
 
-			holder.appIcon.setImageDrawable(null);
 			holder.appName.setText(data.label);
 			holder.appLine2.setText(data.line2);
 
-			if(true && !data.packageInfo.packageName.equals(holder.packageName))
+			// While loading, the list is updated repeatedly, so rows are often
+			// bound to the same package again. These keep their icon, or the
+			// task that is still loading it, unless the package was updated.
+			if(!appInfo.packageName.equals(holder.packageName)
+					|| data.packageInfo.lastUpdateTime != holder.lastUpdateTime)
 			{
 				if(holder.task != null)
 					holder.task.cancel(true);
 
+				holder.appIcon.setImageDrawable(null);
+
 				holder.task = new AsyncTask<Void, Void, Object[]>() {
 					@Override
 					protected Object[] doInBackground(Void... params)
 					{
 						final Object[] result = new Object[2];
-						result[0] = appInfo.loadIcon(mPm);
+						result[0] = mCache.getIcon(data.packageInfo);
 						//result[1] = appInfo.loadLabel(mPm);
 						return result;
 					}
@@ -159,12 +180,7 @@ public class AppListFragment extends ListFragment implements LoaderCallbacks<Lis
 				}.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
 
 				holder.packageName = appInfo.packageName;
-			}
-			else
-			{
-				holder.appIcon.setImageDrawable(appInfo.loadIcon(mPm));
-				holder.appName.setText(appInfo.loadLabel(mPm));
-				holder.packageName = appInfo.packageName;
+				holder.lastUpdateTime = data.packageInfo.lastUpdateTime;
 			}
 
 			return convertView;
@@ -174,6 +190,7 @@ public class AppListFragment extends ListFragment implements LoaderCallbacks<Lis
 	static class ViewHolder
 	{
 		String packageName;
+		long lastUpdateTime;
 		AsyncTask<Void, Void, Object[]> task;
 
 		ImageView appIcon;
@@ -183,11 +200,9 @@ public class AppListFragment extends ListFragment implements LoaderCallbacks<Lis
 
 	static class LoaderDataComparator implements Comparator<PackageInfoData>
 	{
-		private static Collator sCollator = Collator.getInstance();
-
 		@Override
 		public int compare(PackageInfoData lhs, PackageInfoData rhs) {
-			return sCollator.compare(lhs.label, rhs.label);
+			return AppInfoCache.compareSortKeys(lhs.sortKey, rhs.sortKey);
 		}
 	}
 
@@ -195,25 +210,64 @@ public class AppListFragment extends ListFragment implements LoaderCallbacks<Lis
 	{
 		final PackageInfo packageInfo;
 		final CharSequence label;
+		final byte[] sortKey;
 		CharSequence line2;
 		List<OpEntryWrapper> changedOps;
 
-		PackageInfoData(PackageInfo packageInfo, CharSequence label)
+		PackageInfoData(PackageInfo packageInfo, CharSequence label, byte[] sortKey)
 		{
 			this.packageInfo = packageInfo;
 			this.label = label;
+			this.sortKey = sortKey;
 			line2 = packageInfo.packageName;
 		}
 	}
 
 	static class AppListLoader extends AsyncTaskLoader<List<PackageInfoData>>
 	{
+		private static final int LOADER_THREADS = Math.max(2,
+				Math.min(Runtime.getRuntime().availableProcessors(), 8));
+		private static final int MIN_PACKAGES_PER_THREAD = 16;
+		private static final int PACKAGES_PER_CHUNK = 16;
+		private static final long PARTIAL_RESULT_INTERVAL_MILLIS = 150;
+
+		private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+				LOADER_THREADS, LOADER_THREADS, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger mCount = new AtomicInteger();
+
+					@Override
+					public Thread newThread(final Runnable r)
+					{
+						return new Thread(new Runnable() {
+							@Override
+							public void run()
+							{
+								Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+								r.run();
+							}
+						}, "AppListLoader #" + mCount.incrementAndGet());
+					}
+				});
+
+		static
+		{
+			sExecutor.allowCoreThreadTimeOut(true);
+		}
+
 		private static String[] sOpPerms = getOpPermissions();
 
 		private final AppOpsState mState;
 		private final PackageManager mPm;
+		private final AppInfoCache mCache;
+		private final Handler mHandler = new Handler();
 		private List<PackageInfoData> mData;
 
+		// Identifies the current load, so that partial results of a
+		// previous load are dropped.
+		private volatile int mLoadId = 0;
+		private boolean mIsDeliveringPartialResult = false;
+
 		private final boolean mRemoveAppsWithUnchangedOps;
 
 		public AppListLoader(Context context, boolean removeAppsWithUnchangedOps)
@@ -221,44 +275,160 @@ public class AppListFragment extends ListFragment implements LoaderCallbacks<Lis
 			super(context);
 			mState = new AppOpsState(context);
 			mPm = context.getPackageManager();
+			mCache = AppInfoCache.get(context);
 			mRemoveAppsWithUnchangedOps = removeAppsWithUnchangedOps;
 		}
 
 		@Override
 		public List<PackageInfoData> loadInBackground()
 		{
-			final List<PackageInfoData> data = new ArrayList<PackageInfoData>();
+			final List<PackageOpsWrapper> packages = AppOpsSnapshot.get(getContext()).getPackages();
+			final int loadId = ++mLoadId;
+
+			// Packages are sorted in chunks, and merged into the result. Until
+			// all packages are loaded, the result is periodically delivered as
+			// it is, so that the user doesn't have to wait for the full list.
+			final ProgressiveResult<PackageInfoData> result = new ProgressiveResult<>(
+					new LoaderDataComparator(), PARTIAL_RESULT_INTERVAL_MILLIS,
+					new ProgressiveResult.Listener<PackageInfoData>() {
+						@Override
+						public void onPartialResult(final List<PackageInfoData> data)
+						{
+							mHandler.post(new Runnable() {
+								@Override
+								public void run()
+								{
+									deliverPartialResult(loadId, data);
+								}
+							});
+						}
+					});
+
+			// Loading labels means loading each package's resources, so this
+			// is spread across several threads. Each thread takes every n-th
+			// package, so that slow packages are distributed evenly.
+			final int threadCount = Math.max(1, Math.min(LOADER_THREADS,
+					packages.size() / MIN_PACKAGES_PER_THREAD));
+			final List<Future<?>> futures = new ArrayList<>(threadCount);
+
+			for(int i = 0; i != threadCount; ++i)
+			{
+				final int first = i;
+
+				futures.add(sExecutor.submit(new Runnable() {
+					@Override
+					public void run()
+					{
+						List<PackageInfoData> chunk = new ArrayList<>(PACKAGES_PER_CHUNK);
+						for(int k = first; k < packages.size(); k += threadCount)
+						{
+							if(isLoadInBackgroundCanceled())
+								return;
+
+							// The package's ops are already known, so apps with unchanged
+							// ops are skipped before their label is loaded.
+							final PackageOpsWrapper pow = packages.get(k);
+							if(mRemoveAppsWithUnchangedOps && !hasChangedOps(pow))
+								continue;
+
+							final PackageInfoData pid = loadPackageInfoData(pow);
+							if(pid == null)
+								continue;
+
+							if(mRemoveAppsWithUnchangedOps)
+								setChangedOps(pid, pow);
+
+							chunk.add(pid);
+							if(chunk.size() == PACKAGES_PER_CHUNK)
+							{
+								result.addChunk(chunk);
+								chunk = new ArrayList<>(PACKAGES_PER_CHUNK);
+							}
+						}
+
+						result.addChunk(chunk);
+					}
+				}));
+			}
+
+			try
+			{
+				for(Future<?> future : futures)
+					future.get();
+			}
+			catch(InterruptedException e)
+			{
+				throw new OperationCanceledException();
+			}
+			catch(ExecutionException e)
+			{
+				throw new RuntimeException(e.getCause());
+			}
+			finally
+			{
+				for(Future<?> future : futures)
+					future.cancel(true);
+			}
+
+			mCache.flush();
+
+			if(isLoadInBackgroundCanceled())
+				throw new OperationCanceledException();
+
+			return result.get();
+		}
+
+		private PackageInfoData loadPackageInfoData(PackageOpsWrapper pow)
+		{
+			CharSequence label;
+			byte[] sortKey;
+			PackageInfo pi = null;
 
-			final AppOpsManagerWrapper appOps = AppOpsManagerWrapper.from(getContext());
-			for(PackageOpsWrapper pow : appOps.getAllPackagesForOps(null))
+			try
 			{
-				CharSequence label;
-				PackageInfo pi = null;
+				pi = mPm.getPackageInfo(pow.getPackageName(), 0);
+				label = mCache.getLabel(pi);
+				sortKey = mCache.getSortKey(pi);
+			}
+			catch(Resources.NotFoundException e)
+			{
+				label = pow.getPackageName();
+				sortKey = mCache.getSortKey(label);
+			}
+			catch(PackageManager.NameNotFoundException e)
+			{
+				return null;
+			}
+
+			if(pi != null && label != null)
+				return new PackageInfoData(pi, label, sortKey);
 
+			return null;
+		}
+
+		private void deliverPartialResult(int loadId, List<PackageInfoData> data)
+		{
+			// Partial results are not stored in mData, as they must not be
+			// redelivered once the loader is restarted.
+			if(loadId == mLoadId && isStarted() && !isLoadInBackgroundCanceled())
+			{
+				mIsDeliveringPartialResult = true;
 				try
 				{
-					pi = mPm.getPackageInfo(pow.getPackageName(), 0);
-					label = pi.applicationInfo.loadLabel(mPm);
+					super.deliverResult(data);
 				}
-				catch(Resources.NotFoundException e)
+				finally
 				{
-					label = pow.getPackageName();
+					mIsDeliveringPartialResult = false;
 				}
-				catch(PackageManager.NameNotFoundException e)
-				{
-					continue;
-				}
-
-				if(pi != null && label != null)
-					data.add(new PackageInfoData(pi, label));
 			}
+		}
 
-			if(mRemoveAppsWithUnchangedOps)
-				removeAppsWithUnchangedOps(data);
-
-			Collections.sort(data, new LoaderDataComparator());
-
-			return data;
+		/**
+		 * Returns true while onLoadFinished is called with a partial result.
+		 */
+		public boolean isDeliveringPartialResult() {
+			return mIsDeliveringPartialResult;
 		}
 
 		@Override
@@ -295,55 +465,42 @@ public class AppListFragment extends ListFragment implements LoaderCallbacks<Lis
 			mData = null;
 		}
 
-		private void removeAppsWithUnchangedOps(List<PackageInfoData> data)
+		private static boolean hasChangedOps(PackageOpsWrapper pkgOps)
 		{
-			for(int i = 0; i != data.size(); ++i)
+			for(OpEntryWrapper op : pkgOps.getOps())
 			{
-				if(hasUnchangedOps(data.get(i)))
-				{
-					data.remove(i);
-					--i;
-				}
+				if(!isUnchanged(op))
+					return true;
 			}
+
+			return false;
 		}
 
-		private boolean hasUnchangedOps(PackageInfoData info)
+		private void setChangedOps(PackageInfoData info, PackageOpsWrapper pkgOps)
 		{
-			final AppOpsManagerWrapper appOps = AppOpsManagerWrapper.from(getContext());
-			final List<PackageOpsWrapper> pkgOpsList = appOps.getOpsForPackage(info.packageInfo.applicationInfo.uid,
-					info.packageInfo.applicationInfo.packageName, null);
-
-			boolean hasUnchangedOps = true;
-
 			final SpannableStringBuilder ssb = new SpannableStringBuilder();
 
-			for(PackageOpsWrapper pkgOps : pkgOpsList)
+			for(OpEntryWrapper op : pkgOps.getOps())
 			{
-				for(OpEntryWrapper op : pkgOps.getOps())
+				if(!isUnchanged(op))
 				{
-					if(!isUnchanged(op))
-					{
-						if(info.changedOps == null)
-							info.changedOps = new ArrayList<OpEntryWrapper>();
+					if(info.changedOps == null)
+						info.changedOps = new ArrayList<OpEntryWrapper>();
 
-						info.changedOps.add(op);
+					info.changedOps.add(op);
 
-						if(ssb.length() != 0)
-							ssb.append(", ");
+					if(ssb.length() != 0)
+						ssb.append(", ");
 
-						final SpannableString opSummary = new SpannableString(
-								OpsLabelHelper.getOpLabel(getContext(), AppOpsManagerWrapper.opToSwitch(op.getOp())));
-						opSummary.setSpan(new StrikethroughSpan(), 0, opSummary.length(), 0);
-						ssb.append(opSummary);
-						hasUnchangedOps = false;
-					}
+					final SpannableString opSummary = new SpannableString(
+							OpsLabelHelper.getOpLabel(getContext(), AppOpsManagerWrapper.opToSwitch(op.getOp())));
+					opSummary.setSpan(new StrikethroughSpan(), 0, opSummary.length(), 0);
+					ssb.append(opSummary);
 				}
 			}
 
-			if(!hasUnchangedOps)
+			if(ssb.length() != 0)
 				info.line2 = ssb;
-
-			return hasUnchangedOps;
 		}
 
 		private boolean hasAppOps(PackageInfo info)
@@ -439,6 +596,10 @@ public class AppListFragment extends ListFragment implements LoaderCallbacks<Lis
 	public void onLoadFinished(Loader<List<PackageInfoData>> loader, List<PackageInfoData> data)
 	{
 		mAdapter.setData(data);
+
+		// Resetting must not be possible until all packages have been loaded,
+		// as only the loaded ones would be reset.
+		mCompleteData = ((AppListLoader) loader).isDeliveringPartialResult() ? null : data;
 		getActivity().invalidateOptionsMenu();
 
 		if(isResumed())
@@ -448,8 +609,10 @@ public class AppListFragment extends ListFragment implements LoaderCallbacks<Lis
 	}
 
 	@Override
-	public void onLoaderReset(Loader<List<PackageInfoData>> data) {
+	public void onLoaderReset(Loader<List<PackageInfoData>> data)
+	{
 		mAdapter.setData(null);
+		mCompleteData = null;
 	}
 
 	@Override
@@ -492,13 +655,13 @@ public class AppListFragment extends ListFragment implements LoaderCallbacks<Lis
 
 	@Override
 	public void onPrepareOptionsMenu(Menu menu) {
-		menu.findItem(MENU_RESET).setEnabled(mAdapter.mList != null);
+		menu.findItem(MENU_RESET).setEnabled(mCompleteData != null);
 	}
 
 	@Override
 	public boolean onOptionsItemSelected(MenuItem item)
 	{
-		if(mAdapter.mList == null || item.getItemId() != MENU_RESET)
+		if(mCompleteData == null || item.getItemId() != MENU_RESET)
 			return false;
 
 		resetChangedOps();
@@ -508,9 +671,13 @@ public class AppListFragment extends ListFragment implements LoaderCallbacks<Lis
 	private void resetChangedOps()
 	{
 		final AppOpsManagerWrapper appOps = AppOpsManagerWrapper.from(getActivity());
+		final List<ModeChange> changes = new ArrayList<ModeChange>();
 
-		for(PackageInfoData pi : mAdapter.mList)
+		for(PackageInfoData pi : mCompleteData)
 		{
+			if(pi.changedOps == null)
+				continue;
+
 			final int uid = pi.packageInfo.applicationInfo.uid;
 			final String packageName = pi.packageInfo.packageName;
 
@@ -518,10 +685,27 @@ public class AppListFragment extends ListFragment implements LoaderCallbacks<Lis
 			{
 				final int op = entry.getOp();
 				if(AppOpsManagerWrapper.opAllowsReset(op))
-					appOps.setMode(op, uid, packageName, AppOpsManagerWrapper.opToDefaultMode(op));
+				{
+					changes.add(new ModeChange(op, uid, packageName,
+							AppOpsManagerWrapper.opToDefaultMode(op)));
+				}
 			}
 		}
 
-		getLoaderManager().restartLoader(0, null, this);
+		new AsyncTask<Void, Void, Void>() {
+			@Override
+			protected Void doInBackground(Void... params)
+			{
+				appOps.setModes(changes);
+				return null;
+			}
+
+			@Override
+			protected void onPostExecute(Void result)
+			{
+				if(isAdded())
+					getLoaderManager().restartLoader(0, null, AppListFragment.this);
+			}
+		}.execute();
 	}
 }
@@ -16,9 +16,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 import at.jclehner.appopsxposed.util.AppOpsManagerWrapper;
+import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.ModeChange;
+import at.jclehner.appopsxposed.util.AppOpsSnapshot;
 import at.jclehner.appopsxposed.util.ObjectWrapper;
 import at.jclehner.appopsxposed.util.Util;
 
@@ -42,79 +47,108 @@ public class Backup
 {
 	public static boolean restore(Context context)
 	{
-		final AppOpsManagerWrapper appOps = AppOpsManagerWrapper.from(context);
 		FileInputStream stream = null;
 
 		try
 		{
-			final XmlPullParser xml = Xml.newPullParser();
 			stream = new FileInputStream(getAndCreateFile(context));
-			xml.setInput(stream, "utf-8");
+			restore(context, stream);
+			return true;
+		}
+		catch(IOException|XmlPullParserException|ParseException e)
+		{
+			Log.w("AOX:Backup", e);
+			return false;
+		}
+		finally
+		{
+			Util.closeQuietly(stream);
+		}
+	}
 
-			// Skip START_DOCUMENT
-			xml.next();
+	public static void restore(Context context, InputStream stream) throws IOException, XmlPullParserException
+	{
+		final AppOpsManagerWrapper appOps = AppOpsManagerWrapper.from(context);
+		final List<ModeChange> changes = new ArrayList<>();
 
-			expectStartTag(xml, "aox");
+		final XmlPullParser xml = Xml.newPullParser();
+		xml.setInput(stream, "utf-8");
 
-			int version = Integer.parseInt(expectAttribute(xml, "v"));
-			if(version != 1)
-				throw new IllegalStateException("Expected version 1, got " + version);
+		// Skip START_DOCUMENT
+		xml.next();
 
-			while(xml.next() != XmlPullParser.END_DOCUMENT)
-			{
-				if(isEndTag(xml, "aox"))
-					break;
+		expectStartTag(xml, "aox");
 
-				expectStartTag(xml, "pkg");
-				final String packageName = expectAttribute(xml, "n");
-				final int uid = getPackageUid(context, packageName);
+		int version = Integer.parseInt(expectAttribute(xml, "v"));
+		if(version != 1)
+			throw new IllegalStateException("Expected version 1, got " + version);
 
-				// If uid == -1, the package is not installed. Skip the
-				// restore phase, but keep parsing so as to validate the
-				// file and not mess up the parser's state.
+		while(xml.next() != XmlPullParser.END_DOCUMENT)
+		{
+			if(isEndTag(xml, "aox"))
+				break;
 
-				boolean wasSkipMsgDisplayed = false;
+			expectStartTag(xml, "pkg");
+			final String packageName = expectAttribute(xml, "n");
+			final int uid = getPackageUid(context, packageName);
 
-				while(xml.next() != XmlPullParser.END_DOCUMENT)
-				{
-					if(isEndTag(xml, "pkg"))
-						break;
+			// If uid == -1, the package is not installed. Skip the
+			// restore phase, but keep parsing so as to validate the
+			// file and not mess up the parser's state.
 
-					expectStartTag(xml, "op");
+			boolean wasSkipMsgDisplayed = false;
 
-					final String opName = expectAttribute(xml, "n");
-					String modeName = expectAttribute(xml, "m");
+			while(xml.next() != XmlPullParser.END_DOCUMENT)
+			{
+				if(isEndTag(xml, "pkg"))
+					break;
+
+				expectStartTag(xml, "op");
 
-					final int op = AppOpsManagerWrapper.opFromName(opName.toUpperCase());
-					final int mode = translateMode(packageName, modeName);
-					modeName = AppOpsManagerWrapper.modeToName(mode).toLowerCase();
+				final String opName = expectAttribute(xml, "n");
+				String modeName = expectAttribute(xml, "m");
 
-					if(AppOpsManagerWrapper.isValidOp(op) && mode != -1)
+				final int op = AppOpsManagerWrapper.opFromName(opName.toUpperCase());
+				final int mode = translateMode(packageName, modeName);
+				modeName = AppOpsManagerWrapper.modeToName(mode).toLowerCase();
+
+				if(AppOpsManagerWrapper.isValidOp(op) && mode != -1)
+				{
+					if(uid != -1)
 					{
-						if(uid != -1)
-						{
-							appOps.setMode(op, uid, packageName, mode);
-							Log.i("AOX:Backup", packageName + ": " + opName + " = " + modeName);
-						}
-						else if(!wasSkipMsgDisplayed)
-						{
-							Log.i("AOX:Backup", packageName + ": not installed; skipping");
-							wasSkipMsgDisplayed = true;
-						}
+						changes.add(new ModeChange(op, uid, packageName, mode));
+						Log.i("AOX:Backup", packageName + ": " + opName + " = " + modeName);
+					}
+					else if(!wasSkipMsgDisplayed)
+					{
+						Log.i("AOX:Backup", packageName + ": not installed; skipping");
+						wasSkipMsgDisplayed = true;
 					}
-					else
-						Log.i("AOX:Backup", packageName + ": not restoring op " + opName);
-
-					xml.next();
-					expectEndTag(xml, "op");
 				}
+				else
+					Log.i("AOX:Backup", packageName + ": not restoring op " + opName);
 
-				expectEndTag(xml, "pkg");
+				xml.next();
+				expectEndTag(xml, "op");
 			}
 
+			expectEndTag(xml, "pkg");
+		}
+
+		appOps.setModes(changes);
+	}
+
+	public static boolean create(Context context)
+	{
+		FileOutputStream stream = null;
+
+		try
+		{
+			stream = new FileOutputStream(getAndCreateFile(context));
+			create(context, stream);
 			return true;
 		}
-		catch(IOException|XmlPullParserException|ParseException e)
+		catch(IOException e)
 		{
 			Log.w("AOX:Backup", e);
 			return false;
@@ -125,70 +159,56 @@ public class Backup
 		}
 	}
 
-	public static boolean create(Context context)
+	public static void create(Context context, OutputStream stream) throws IOException
 	{
-		FileOutputStream stream = null;
+		final XmlSerializer xml = Xml.newSerializer();
+		xml.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
 
-		try
-		{
-			final XmlSerializer xml = Xml.newSerializer();
-			xml.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
-			stream = new FileOutputStream(getAndCreateFile(context));
+		xml.setOutput(stream, "utf-8");
+		xml.startDocument(null, true);
+		xml.startTag(null, "aox");
+		xml.attribute(null, "v", "1");
 
-			xml.setOutput(stream, "utf-8");
-			xml.startDocument(null, true);
-			xml.startTag(null, "aox");
-			xml.attribute(null, "v", "1");
+		// The snapshot may miss changes made outside of this process, which
+		// a backup must not. Getting a new one also refreshes all screens.
+		AppOpsSnapshot.invalidate();
+		final List<AppOpsManagerWrapper.PackageOpsWrapper> pows =
+				AppOpsSnapshot.get(context).getPackages();
 
-			final AppOpsManagerWrapper appOps = AppOpsManagerWrapper.from(context);
-			final List<AppOpsManagerWrapper.PackageOpsWrapper> pows = appOps.getAllPackagesForOps(null);
-
-			if(pows != null)
+		if(pows != null)
+		{
+			for(AppOpsManagerWrapper.PackageOpsWrapper pow : pows)
 			{
-				for(AppOpsManagerWrapper.PackageOpsWrapper pow : pows)
+				boolean pkgWritten = false;
+
+				for(AppOpsManagerWrapper.OpEntryWrapper oew : pow.getOps())
 				{
-					boolean pkgWritten = false;
+					final int mode = oew.getMode();
+					final int op = oew.getOp();
 
-					for(AppOpsManagerWrapper.OpEntryWrapper oew : pow.getOps())
+					if(mode != AppOpsManagerWrapper.opToDefaultMode(op))
 					{
-						final int mode = oew.getMode();
-						final int op = oew.getOp();
-
-						if(mode != AppOpsManagerWrapper.opToDefaultMode(op))
+						if(!pkgWritten)
 						{
-							if(!pkgWritten)
-							{
-								xml.startTag(null, "pkg");
-								xml.attribute(null, "n", pow.getPackageName());
-								pkgWritten = true;
-							}
-
-							xml.startTag(null, "op");
-							xml.attribute(null, "n", AppOpsManagerWrapper.opToName(op).toLowerCase());
-							xml.attribute(null, "m", AppOpsManagerWrapper.modeToName(mode).toLowerCase());
-							xml.endTag(null, "op");
+							xml.startTag(null, "pkg");
+							xml.attribute(null, "n", pow.getPackageName());
+							pkgWritten = true;
 						}
-					}
 
-					if(pkgWritten)
-						xml.endTag(null, "pkg");
+						xml.startTag(null, "op");
+						xml.attribute(null, "n", AppOpsManagerWrapper.opToName(op).toLowerCase());
+						xml.attribute(null, "m", AppOpsManagerWrapper.modeToName(mode).toLowerCase());
+						xml.endTag(null, "op");
+					}
 				}
-			}
 
-			xml.endTag(null, "aox");
-			xml.endDocument();
-
-			return true;
-		}
-		catch(IOException e)
-		{
-			Log.w("AOX:Backup", e);
-			return false;
-		}
-		finally
-		{
-			Util.closeQuietly(stream);
+				if(pkgWritten)
+					xml.endTag(null, "pkg");
+			}
 		}
+
+		xml.endTag(null, "aox");
+		xml.endDocument();
 	}
 
 
@@ -42,8 +42,10 @@ import android.os.Parcelable;
 import android.support.v4.content.FileProvider;
 import android.util.Log;
 import android.widget.Toast;
+import at.jclehner.appopsxposed.hacks.FixWakeLock;
 import at.jclehner.appopsxposed.util.AppOpsManagerWrapper;
 import at.jclehner.appopsxposed.util.Util;
+import at.jclehner.appopsxposed.util.WakeLockStats;
 import eu.chainfire.libsuperuser.Shell;
 import eu.chainfire.libsuperuser.Shell.SU;
 
@@ -126,6 +128,7 @@ public class BugReportBuilder
 		Log.d("AOX", sb.toString());
 		Log.d("AOX", "\n-------------------------");
 
+		collectWakeLockStats(sb);
 		collectXposedLogs(sb);
 		collectProps(sb);
 		collectLogcat(sb);
@@ -273,6 +276,25 @@ public class BugReportBuilder
 		}
 	}
 
+	private void collectWakeLockStats(StringBuilder sb)
+	{
+		sb.append("\n---------------------------------------------------");
+		sb.append("\n----------------- WAKELOCK STATS ------------------\n");
+
+		// If FixWakeLock isn't active, the argument is ignored, and we'd get
+		// the power service's entire state instead.
+		final List<String> lines = Shell.SU.run("dumpsys power " + FixWakeLock.DUMP_ARG);
+		final int start = lines != null ? indexOfLineStartingWith(lines, WakeLockStats.DUMP_HEADER) : -1;
+		if(start == -1)
+		{
+			sb.append("(not available)\n");
+			return;
+		}
+
+		for(String line : lines.subList(start, lines.size()))
+			sb.append(line + "\n");
+	}
+
 	private void collectXposedLogs(StringBuilder sb)
 	{
 		sb.append("\n---------------------------------------------------");
@@ -300,6 +322,17 @@ public class BugReportBuilder
 			sb.append(line + "\n");
 	}
 
+	private static int indexOfLineStartingWith(List<String> lines, String prefix)
+	{
+		for(int i = 0; i != lines.size(); ++i)
+		{
+			if(lines.get(i).startsWith(prefix))
+				return i;
+		}
+
+		return -1;
+	}
+
 	private static String toTickedBox(boolean b) {
 		return b ? " [*]" : " [ ]";
 	}
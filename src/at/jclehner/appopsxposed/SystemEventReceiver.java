@@ -15,6 +15,8 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 
+import at.jclehner.appopsxposed.util.AppInfoCache;
+import at.jclehner.appopsxposed.util.AppOpsSnapshot;
 import at.jclehner.appopsxposed.util.Util;
 
 public class SystemEventReceiver extends BroadcastReceiver
@@ -23,7 +25,22 @@ public class SystemEventReceiver extends BroadcastReceiver
 	public void onReceive(Context context, Intent intent)
 	{
 		if(intent.getData() != null && "package".equals(intent.getData().getScheme()))
-			showPackageNotification(context, intent);
+		{
+			final String packageName = intent.getData().getEncodedSchemeSpecificPart();
+			AppOpsSnapshot.invalidatePackage(packageName);
+
+			// This touches the disk, so it's done in the background
+			final PendingResult result = goAsync();
+			AppInfoCache.get(context).invalidateAsync(packageName, new Runnable() {
+				@Override
+				public void run() {
+					result.finish();
+				}
+			});
+
+			if(!Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction()))
+				showPackageNotification(context, intent);
+		}
 	}
 
 	private void showPackageNotification(Context context, Intent intent)
@@ -140,26 +140,17 @@ public class BootCompletedHack extends Hack
 	private void patchAppOpsManager(ClassLoader classLoader) throws Throwable
 	{
 		final Map<String, Object> functions = getAppOpsManagerFunctionsToPatch();
+		final Class<?> appOpsMgrClazz = classLoader.loadClass("android.app.AppOpsManager");
 
-		final XC_MethodHook hook = new XC_MethodHook() {
+		// These functions are called very often, so each one gets its own hook,
+		// with the return value already looked up.
 
-			@Override
-			protected void beforeHookedMethod(MethodHookParam param) throws Throwable
-			{
-				final int op = (Integer) param.args[0];
-				if(op == OP_BOOT_COMPLETED)
-				{
-					param.setResult(functions.get(param.method.getName()));
-				}
-			}
-		};
-
-		for(String function : functions.keySet())
+		for(Map.Entry<String, Object> function : functions.entrySet())
 		{
 			try
 			{
-				XposedHelpers.findAndHookMethod(classLoader.loadClass("android.app.AppOpsManager"), function,
-						int.class, hook);
+				XposedHelpers.findAndHookMethod(appOpsMgrClazz, function.getKey(),
+						int.class, new BootCompletedResultHook(function.getValue()));
 			}
 			catch(NoSuchMethodError e)
 			{
@@ -168,6 +159,22 @@ public class BootCompletedHack extends Hack
 		}
 	}
 
+	private static class BootCompletedResultHook extends XC_MethodHook
+	{
+		private final Object mResult;
+
+		BootCompletedResultHook(Object result) {
+			mResult = result;
+		}
+
+		@Override
+		protected void beforeHookedMethod(MethodHookParam param) throws Throwable
+		{
+			if((Integer) param.args[0] == OP_BOOT_COMPLETED)
+				param.setResult(mResult);
+		}
+	}
+
 	@TargetApi(19)
 	private void patchActivityManagerService(ClassLoader classLoader) throws Throwable
 	{
@@ -246,110 +253,106 @@ public class BootCompletedHack extends Hack
 		else
 			hookNotificationMethods(notificationMgrSvcClazz);
 
-		final Class<?> appOpsMgrClazz = loadClass("android.app.AppOpsManager");
-
-		// hook AppOpsManager.noteOpNoThrow for the duration of the call to
-		// NotificationManagerService.noteNotificationOp
-
 		XposedHelpers.findAndHookMethod(notificationMgrSvcClazz, "noteNotificationOp",
-				String.class, int.class, new XC_MethodHook() {
-
-				private Unhook mUnhook;
-
-				@Override
-				protected void beforeHookedMethod(MethodHookParam param) throws Throwable
-				{
-					mUnhook = XposedHelpers.findAndHookMethod(appOpsMgrClazz, "noteOpNoThrow",
-							int.class, int.class, String.class, new XC_MethodHook() {
-								@Override
-								protected void beforeHookedMethod(MethodHookParam param)
-										throws Throwable
-								{
-									//log("noteOpNoThrow called in noteNotificationOp");
+				String.class, int.class, new ScopeHook(NOTE_NOTIFICATION_OP_SCOPE));
 
-									final int op = (Integer) param.args[0];
-									if(op == OP_POST_NOTIFICATION)
-										param.args[0] = OP_VIBRATE;
-								}
-					});
-				}
+		// The AppOpsManager hooks are installed only once, and do nothing unless
+		// the current thread is inside the respective NotificationManagerService
+		// method. Hooking and unhooking them on each call would be expensive, and
+		// would break if two threads were to call these methods at the same time.
 
-				@Override
-				protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-					mUnhook.unhook();
-				}
-		});
+		final Class<?> appOpsMgrClazz = loadClass("android.app.AppOpsManager");
 
-		// hook AppOpsManager.setMode for the duration of the call to
-		// NotificationManagerService.setNotificationsEnabledForPackage
+		XposedHelpers.findAndHookMethod(appOpsMgrClazz, "noteOpNoThrow",
+				int.class, int.class, String.class,
+				new ScopedOpRedirectHook(NOTE_NOTIFICATION_OP_SCOPE));
 
+		XposedHelpers.findAndHookMethod(appOpsMgrClazz, "checkOpNoThrow",
+				int.class, int.class, String.class,
+				new ScopedOpRedirectHook(ARE_NOTIFICATIONS_ENABLED_SCOPE));
 
+		XposedHelpers.findAndHookMethod(appOpsMgrClazz, "setMode",
+				int.class, int.class, String.class, int.class,
+				new ScopedOpRedirectHook(SET_NOTIFICATIONS_ENABLED_SCOPE));
 	}
 
 	private void hookNotificationMethods(Class<?> targetClazz) throws Throwable
 	{
-		// hook AppOpsManager.checkOpNoThrow for the duration of the call to
-		// NotificationManagerService.areNotificationsEnabledForPackage
+		XposedHelpers.findAndHookMethod(targetClazz, "areNotificationsEnabledForPackage",
+				String.class, int.class, new ScopeHook(ARE_NOTIFICATIONS_ENABLED_SCOPE));
 
-		final Class<?> appOpsMgrClazz = loadClass("android.app.AppOpsManager");
+		XposedHelpers.findAndHookMethod(targetClazz, "setNotificationsEnabledForPackage",
+				String.class, int.class, boolean.class,
+				new ScopeHook(SET_NOTIFICATIONS_ENABLED_SCOPE));
+	}
 
-		XposedHelpers.findAndHookMethod(targetClazz, "areNotificationsEnabledForPackage",
-				String.class, int.class, new XC_MethodHook() {
+	private static final CallScope NOTE_NOTIFICATION_OP_SCOPE = new CallScope();
+	private static final CallScope ARE_NOTIFICATIONS_ENABLED_SCOPE = new CallScope();
+	private static final CallScope SET_NOTIFICATIONS_ENABLED_SCOPE = new CallScope();
 
-				private Unhook mUnhook;
+	/*
+	 * Keeps track of whether the current thread is inside a call to a
+	 * specific method. A depth counter is used instead of a flag, so that
+	 * recursive calls don't end the scope prematurely.
+	 */
+	private static class CallScope
+	{
+		private final ThreadLocal<int[]> mDepth = new ThreadLocal<int[]>() {
+			@Override
+			protected int[] initialValue() {
+				return new int[1];
+			}
+		};
 
-				@Override
-				protected void beforeHookedMethod(MethodHookParam param) throws Throwable
-				{
-					mUnhook = XposedHelpers.findAndHookMethod(appOpsMgrClazz, "checkOpNoThrow",
-							int.class, int.class, String.class, new XC_MethodHook() {
-								@Override
-								protected void beforeHookedMethod(MethodHookParam param)
-										throws Throwable
-								{
-									log("checkOpNoThrow called in areNotificationsEnabledForPackage");
+		void enter() {
+			++mDepth.get()[0];
+		}
 
-									final int op = (Integer) param.args[0];
-									if(op == OP_POST_NOTIFICATION)
-										param.args[0] = OP_VIBRATE;
-								}
-					});
-				}
+		void exit() {
+			--mDepth.get()[0];
+		}
 
-				@Override
-				protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-					mUnhook.unhook();
-				}
-		});
+		boolean isActive() {
+			return mDepth.get()[0] > 0;
+		}
+	}
 
-		XposedHelpers.findAndHookMethod(targetClazz, "setNotificationsEnabledForPackage",
-				String.class, int.class, boolean.class, new XC_MethodHook() {
+	private static class ScopeHook extends XC_MethodHook
+	{
+		private final CallScope mScope;
 
-				private Unhook mUnhook;
+		ScopeHook(CallScope scope) {
+			mScope = scope;
+		}
 
-				@Override
-				protected void beforeHookedMethod(MethodHookParam param) throws Throwable
-				{
-					mUnhook = XposedHelpers.findAndHookMethod(appOpsMgrClazz, "setMode",
-							int.class, int.class, String.class, int.class, new XC_MethodHook() {
-								@Override
-								protected void beforeHookedMethod(MethodHookParam param)
-										throws Throwable
-								{
-									log("setMode called in setNotificationsEnabledForPackage");
+		@Override
+		protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+			mScope.enter();
+		}
 
-									final int op = (Integer) param.args[0];
-									if(op == OP_POST_NOTIFICATION)
-										param.args[0] = OP_VIBRATE;
-								}
-					});
-				}
+		@Override
+		protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+			mScope.exit();
+		}
+	}
 
-				@Override
-				protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-					mUnhook.unhook();
-				}
-		});
+	// Makes an AppOpsManager method operate on OP_VIBRATE instead of
+	// OP_POST_NOTIFICATION, but only while inside the specified scope.
+	private static class ScopedOpRedirectHook extends XC_MethodHook
+	{
+		private final CallScope mScope;
+
+		ScopedOpRedirectHook(CallScope scope) {
+			mScope = scope;
+		}
+
+		@Override
+		protected void beforeHookedMethod(MethodHookParam param) throws Throwable
+		{
+			final int op = (Integer) param.args[0];
+			if(op == OP_POST_NOTIFICATION && mScope.isActive())
+				param.args[0] = OP_VIBRATE;
+		}
 	}
 
 	private void injectLabelAndSummary(LoadPackageParam lpparam) throws Throwable
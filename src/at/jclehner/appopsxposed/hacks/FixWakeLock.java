@@ -18,21 +18,33 @@
 
 package at.jclehner.appopsxposed.hacks;
 
+import java.io.PrintWriter;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.annotation.TargetApi;
 import android.app.AppOpsManager;
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
 
 import at.jclehner.appopsxposed.Hack;
 import at.jclehner.appopsxposed.util.AppOpsManagerWrapper;
 import at.jclehner.appopsxposed.util.ExceptionEater;
+import at.jclehner.appopsxposed.util.OpModeCache;
 import at.jclehner.appopsxposed.util.Res;
+import at.jclehner.appopsxposed.util.WakeLockStats;
+import at.jclehner.appopsxposed.util.WakeLockTagFilter;
+import at.jclehner.appopsxposed.util.XUtils;
 import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XC_MethodHook.MethodHookParam;
 import de.robv.android.xposed.XC_MethodHook.Unhook;
 import de.robv.android.xposed.XposedBridge;
 import de.robv.android.xposed.XposedHelpers;
@@ -45,12 +57,20 @@ public class FixWakeLock extends Hack
 {
 	public static final FixWakeLock INSTANCE = new FixWakeLock();
 
-	private static final boolean ENABLE_PER_TAG_FILTERING = false;
 	private static final boolean DEBUG = false;
 
+	private static final long PREFS_CHECK_INTERVAL_MILLIS = 10000;
+
+	public static final String DUMP_ARG = "--aox-wakelocks";
+
 	private static final String POWER_SERVICE = "com.android.server.power.PowerManagerService";
 
 	private Set<Unhook> mUnhooks;
+	private volatile OpModeCache mModeCache;
+	private volatile WakeLockTagFilter mTagFilter = WakeLockTagFilter.EMPTY;
+	private final AtomicLong mNextPrefsCheck = new AtomicLong();
+	private Handler mReloadHandler;
+	private final WakeLockStats mStats = new WakeLockStats();
 
 	@Override
 	protected void handleLoadFrameworkPackage(LoadPackageParam lpparam) throws Throwable
@@ -92,28 +112,93 @@ public class FixWakeLock extends Hack
 	{
 		final Class<?> pwrMgrSvcClazz = loadClass(ACQUIRE_WAKE_LOCK_CLASS);
 
+		mTagFilter = WakeLockTagFilter.compile(Res.modPrefs);
+		mNextPrefsCheck.set(SystemClock.uptimeMillis() + PREFS_CHECK_INTERVAL_MILLIS);
+
 		mUnhooks = XposedBridge.hookAllMethods(pwrMgrSvcClazz,
 				"acquireWakeLock", mAcquireHook);
 		log("Hooked " + mUnhooks.size() + " functions");
+
+		// Stats can be viewed using 'dumpsys power --aox-wakelocks'
+		XposedBridge.hookAllMethods(pwrMgrSvcClazz, "dump", mDumpHook);
 	}
 
 	private boolean canAcquire(String packageName, String tag)
 	{
-		if(ENABLE_PER_TAG_FILTERING)
+		maybeReloadTagFilter();
+		return mTagFilter.canAcquire(packageName, tag);
+	}
+
+	// Checking whether the prefs have changed requires a stat() call, so it's
+	// done at most once per interval, and the reload itself is done on
+	// another thread, so as not to delay the acquisition.
+	private void maybeReloadTagFilter()
+	{
+		final long now = SystemClock.uptimeMillis();
+		final long next = mNextPrefsCheck.get();
+		if(now < next || !mNextPrefsCheck.compareAndSet(next, now + PREFS_CHECK_INTERVAL_MILLIS))
+			return;
+
+		getReloadHandler().post(mReloadTagFilterRunnable);
+	}
+
+	private synchronized Handler getReloadHandler()
+	{
+		if(mReloadHandler == null)
 		{
-			final String blacklistKey = "wakelock_hack_is_blacklist/" + packageName;
-			if(!Res.modPrefs.contains(blacklistKey))
-				return false;
+			final HandlerThread thread = new HandlerThread("AOX-WakeLockTagFilter",
+					Process.THREAD_PRIORITY_BACKGROUND);
+			thread.start();
+			mReloadHandler = new Handler(thread.getLooper());
+		}
 
-			final boolean isBlacklist = Res.modPrefs.getBoolean(blacklistKey, true);
-			final Set<String> tags = Res.modPrefs.getStringSet("wakelock_hack_tags/" + packageName, null);
-			if(tags == null || tags.isEmpty() || !tags.contains(tag))
-				return isBlacklist;
+		return mReloadHandler;
+	}
 
-			return !isBlacklist;
+	private final Runnable mReloadTagFilterRunnable = new Runnable() {
+		@Override
+		public void run()
+		{
+			if(Res.modPrefs.hasFileChanged())
+			{
+				XUtils.reloadPrefs();
+				mTagFilter = WakeLockTagFilter.compile(Res.modPrefs);
+				if(DEBUG)
+					log("Reloaded wakelock tag filter");
+			}
+		}
+	};
+
+	// Created on first use, as we need the PowerManagerService's context, which
+	// doesn't exist yet when the hooks are installed.
+	private OpModeCache getModeCache(Context context)
+	{
+		OpModeCache cache = mModeCache;
+		if(cache == null)
+		{
+			synchronized(this)
+			{
+				cache = mModeCache;
+				if(cache == null)
+				{
+					// This is called from a binder thread, so the watchers would
+					// otherwise be registered using the calling app's identity.
+					final long token = Binder.clearCallingIdentity();
+					try
+					{
+						cache = new OpModeCache(context, AppOpsManagerWrapper.OP_WAKE_LOCK);
+					}
+					finally
+					{
+						Binder.restoreCallingIdentity(token);
+					}
+
+					mModeCache = cache;
+				}
+			}
 		}
 
-		return false;
+		return cache;
 	}
 
 	private static Context getContextFromThis(Object object)
@@ -128,49 +213,103 @@ public class FixWakeLock extends Hack
 		@Override
 		protected void beforeHookedMethod(MethodHookParam param) throws Throwable
 		{
-			final IBinder lock = (IBinder) param.args[0];
-			final String tag = (String) param.args[2];
-			final String packageName = param.args[3] instanceof String ?
-					(String) param.args[3] : null;
-
-			final int uid = Binder.getCallingUid();
+			final long start = System.nanoTime();
+			try
+			{
+				onAcquireWakeLock(param);
+			}
+			finally
+			{
+				mStats.onHookFinished(System.nanoTime() - start);
+			}
+		}
+	};
 
-			// Since we want this hack to replicate the expected behaviour,
-			// we have to do some sanity checks first. On error we return
-			// and let the hooked function throw an exception.
+	private final XC_MethodHook mDumpHook = new XC_MethodHook() {
+		@Override
+		protected void beforeHookedMethod(MethodHookParam param) throws Throwable
+		{
+			if(param.args.length != 3 || !(param.args[2] instanceof String[]))
+				return;
 
-			if(lock == null || packageName == null)
+			final String[] args = (String[]) param.args[2];
+			if(args.length == 0 || !DUMP_ARG.equals(args[0]))
 				return;
 
 			final Context ctx = getContextFromThis(param.thisObject);
-			if(ctx == null)
+			final PrintWriter pw = (PrintWriter) param.args[1];
+			if(ctx == null || pw == null)
 				return;
 
-			ctx.enforceCallingOrSelfPermission(
-					android.Manifest.permission.WAKE_LOCK, null);
-
-			final AppOpsManagerWrapper appOps = AppOpsManagerWrapper.from(ctx);
-			if(appOps.checkOpNoThrow(AppOpsManagerWrapper.OP_WAKE_LOCK, uid, packageName) != AppOpsManager.MODE_ALLOWED)
+			if(ctx.checkCallingOrSelfPermission(android.Manifest.permission.DUMP)
+					!= PackageManager.PERMISSION_GRANTED)
 			{
-				if(tag != null && canAcquire(packageName, tag))
-				{
-					if(DEBUG)
-					{
-						log("Allowing acquisition of WakeLock '" + tag +
-								"' for app " + packageName);
-					}
-					return;
-				}
+				pw.println("Permission Denial: can't dump wakelock stats from pid="
+						+ Binder.getCallingPid() + ", uid=" + Binder.getCallingUid());
+			}
+			else
+				mStats.dump(pw);
+
+			param.setResult(null);
+		}
+	};
+
+	private void onAcquireWakeLock(MethodHookParam param)
+	{
+		final IBinder lock = (IBinder) param.args[0];
+		final String tag = (String) param.args[2];
+		final String packageName = param.args[3] instanceof String ?
+				(String) param.args[3] : null;
+
+		final int uid = Binder.getCallingUid();
 
+		// Since we want this hack to replicate the expected behaviour,
+		// we have to do some sanity checks first. On error we return
+		// and let the hooked function throw an exception.
+
+		if(lock == null || packageName == null)
+			return;
+
+		final Context ctx = getContextFromThis(param.thisObject);
+		if(ctx == null)
+			return;
+
+		ctx.enforceCallingOrSelfPermission(
+				android.Manifest.permission.WAKE_LOCK, null);
+
+		final OpModeCache modeCache = getModeCache(ctx);
+		final int mode = modeCache.checkOpNoThrow(uid, packageName);
+
+		// The package name has not been validated yet, so it is only used for
+		// the stats if it actually belongs to the caller.
+		final String statsPackageName = modeCache.isPackageOfUid(uid, packageName) ?
+				packageName : null;
+
+		mStats.onSeen(statsPackageName);
+
+		if(mode != AppOpsManager.MODE_ALLOWED)
+		{
+			if(tag != null && canAcquire(packageName, tag))
+			{
 				if(DEBUG)
 				{
-					log("Prevented acquisition of WakeLock '" + tag +
+					log("Allowing acquisition of WakeLock '" + tag +
 							"' for app " + packageName);
 				}
 
-				param.setResult(null);
+				mStats.onAllowedByTag(statsPackageName);
+				return;
 			}
+
+			if(DEBUG)
+			{
+				log("Prevented acquisition of WakeLock '" + tag +
+						"' for app " + packageName);
+			}
+
+			mStats.onBlocked(statsPackageName);
+			param.setResult(null);
 		}
-	};
+	}
 }
 
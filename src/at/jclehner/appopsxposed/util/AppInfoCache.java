@@ -0,0 +1,608 @@
+/*
+ * AppOpsXposed - AppOps for Android 4.3+
+ * Copyright (C) 2013-2015 Joseph C. Lehner
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.jclehner.appopsxposed.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AtomicFile;
+import android.util.Log;
+
+/**
+ * Persistent cache of application labels and icons. Entries are keyed by
+ * package name, version code and time of last update, so updated packages
+ * are picked up even if a package broadcast was missed. Labels are also
+ * tied to the locale. Along with each label, its collation key is stored,
+ * so that lists of apps can be sorted without collating the labels.
+ * <p>
+ * All labels are kept in a single file, which is written by {@link #flush()}.
+ * Icons are downsampled to the launcher icon size and stored as individual
+ * PNG files. Once the icons exceed {@link #MAX_ICON_BYTES}, the least
+ * recently used ones are removed.
+ */
+public class AppInfoCache
+{
+	private static final String TAG = "AOX:AppInfoCache";
+
+	private static final int LABELS_VERSION = 2;
+	private static final long MAX_ICON_BYTES = 4 * 1024 * 1024;
+	private static final long FLUSH_DELAY_MILLIS = 2000;
+
+	private static AppInfoCache sInstance;
+
+	private static class LabelEntry
+	{
+		final int versionCode;
+		final long lastUpdateTime;
+		final String label;
+		final byte[] sortKey;
+
+		LabelEntry(int versionCode, long lastUpdateTime, String label, byte[] sortKey)
+		{
+			this.versionCode = versionCode;
+			this.lastUpdateTime = lastUpdateTime;
+			this.label = label;
+			this.sortKey = sortKey;
+		}
+
+		boolean matches(PackageInfo pi) {
+			return pi.versionCode == versionCode && pi.lastUpdateTime == lastUpdateTime;
+		}
+	}
+
+	private final Context mContext;
+	private final PackageManager mPm;
+	private final AtomicFile mLabelFile;
+	private final File mIconDir;
+
+	// Loaded lazily
+	private HashMap<String, LabelEntry> mLabels;
+	private String mLocale;
+	private boolean mDirty = false;
+	private long mIconBytes = -1;
+
+	private Collator mCollator;
+	private String mCollatorLocale;
+
+	// Guarded by mPendingInvalidations
+	private final HashSet<String> mPendingInvalidations = new HashSet<>();
+	private final ArrayList<Runnable> mPendingCallbacks = new ArrayList<>();
+	private boolean mIsInvalidating = false;
+	private Handler mHandler;
+
+	private final Runnable mFlushRunnable = new Runnable() {
+		@Override
+		public void run()
+		{
+			AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			});
+		}
+	};
+
+	public static synchronized AppInfoCache get(Context context)
+	{
+		if(sInstance == null)
+			sInstance = new AppInfoCache(context.getApplicationContext());
+
+		return sInstance;
+	}
+
+	private AppInfoCache(Context context)
+	{
+		mContext = context;
+		mPm = context.getPackageManager();
+		mLabelFile = new AtomicFile(new File(context.getCacheDir(), "labels"));
+		mIconDir = new File(context.getCacheDir(), "icons");
+	}
+
+	/**
+	 * Equivalent to pi.applicationInfo.loadLabel(), but uses the cache
+	 * if possible.
+	 */
+	public CharSequence getLabel(PackageInfo pi)
+	{
+		final String locale = Locale.getDefault().toString();
+
+		synchronized(this)
+		{
+			loadLabelsIfNeeded(locale);
+
+			final LabelEntry entry = mLabels.get(pi.packageName);
+			if(entry != null && entry.matches(pi))
+				return entry.label;
+		}
+
+		final CharSequence label = pi.applicationInfo.loadLabel(mPm);
+		if(label != null)
+		{
+			final byte[] sortKey = computeSortKey(label, locale);
+
+			synchronized(this)
+			{
+				if(locale.equals(mLocale))
+				{
+					mLabels.put(pi.packageName, new LabelEntry(pi.versionCode,
+							pi.lastUpdateTime, label.toString(), sortKey));
+					mDirty = true;
+				}
+			}
+		}
+
+		return label;
+	}
+
+	/**
+	 * Returns the collation key of the package's label, as returned by
+	 * {@link #getLabel(PackageInfo)}. Keys must be compared using
+	 * {@link #compareSortKeys(byte[], byte[])}.
+	 */
+	public byte[] getSortKey(PackageInfo pi)
+	{
+		final String locale = Locale.getDefault().toString();
+
+		synchronized(this)
+		{
+			loadLabelsIfNeeded(locale);
+
+			final LabelEntry entry = mLabels.get(pi.packageName);
+			if(entry != null && entry.matches(pi))
+				return entry.sortKey;
+		}
+
+		final CharSequence label = getLabel(pi);
+		return getSortKey(label != null ? label : pi.packageName);
+	}
+
+	/**
+	 * Returns the collation key of an arbitrary label. Unlike the keys of
+	 * package labels, these are not cached.
+	 */
+	public byte[] getSortKey(CharSequence label) {
+		return computeSortKey(label, Locale.getDefault().toString());
+	}
+
+	/**
+	 * Compares two keys returned by getSortKey(), which yields the same
+	 * result as comparing the labels using the locale's Collator.
+	 */
+	public static int compareSortKeys(byte[] lhs, byte[] rhs)
+	{
+		if(lhs == rhs)
+			return 0;
+		else if(lhs == null)
+			return -1;
+		else if(rhs == null)
+			return 1;
+
+		final int length = Math.min(lhs.length, rhs.length);
+		for(int i = 0; i != length; ++i)
+		{
+			// Bytes of collation keys are unsigned
+			final int diff = (lhs[i] & 0xff) - (rhs[i] & 0xff);
+			if(diff != 0)
+				return diff;
+		}
+
+		return lhs.length - rhs.length;
+	}
+
+	/**
+	 * Equivalent to pi.applicationInfo.loadIcon(), but uses the cache if
+	 * possible. The returned icon is downsampled to the launcher icon size.
+	 */
+	public Drawable getIcon(PackageInfo pi)
+	{
+		final File file = new File(mIconDir, getIconFileName(pi));
+		if(file.exists())
+		{
+			final Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+			if(bitmap != null)
+			{
+				file.setLastModified(System.currentTimeMillis());
+				return new BitmapDrawable(mContext.getResources(), bitmap);
+			}
+		}
+
+		final Drawable icon = pi.applicationInfo.loadIcon(mPm);
+		if(icon == null || icon.getIntrinsicWidth() <= 0 || icon.getIntrinsicHeight() <= 0)
+			return icon;
+
+		final int size = mContext.getResources().getDimensionPixelSize(
+				android.R.dimen.app_icon_size);
+		final Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+		final Canvas canvas = new Canvas(bitmap);
+		icon.setBounds(0, 0, size, size);
+		icon.draw(canvas);
+
+		writeIcon(file, bitmap);
+
+		return new BitmapDrawable(mContext.getResources(), bitmap);
+	}
+
+	/**
+	 * Removes all entries of the specified package.
+	 */
+	public void invalidate(String packageName)
+	{
+		invalidateNoFlush(packageName);
+		flush();
+	}
+
+	/**
+	 * Like {@link #invalidate(String)}, but runs in the background. If not
+	 * null, onFinished is run on the background thread once the entries have
+	 * been removed.
+	 * <p>
+	 * The labels are written a while later, so that a burst of invalidations,
+	 * as caused by installing or updating many packages, writes them only
+	 * once. Should that never happen, the stale labels do no harm, as they
+	 * don't match the package's new version.
+	 */
+	public void invalidateAsync(String packageName, Runnable onFinished)
+	{
+		synchronized(mPendingInvalidations)
+		{
+			mPendingInvalidations.add(packageName);
+			if(onFinished != null)
+				mPendingCallbacks.add(onFinished);
+
+			if(mIsInvalidating)
+				return;
+
+			mIsInvalidating = true;
+		}
+
+		AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				runPendingInvalidations();
+			}
+		});
+	}
+
+	private void runPendingInvalidations()
+	{
+		while(true)
+		{
+			final String[] packageNames;
+			final Runnable[] callbacks;
+
+			synchronized(mPendingInvalidations)
+			{
+				if(mPendingInvalidations.isEmpty())
+				{
+					mIsInvalidating = false;
+					return;
+				}
+
+				packageNames = mPendingInvalidations.toArray(
+						new String[mPendingInvalidations.size()]);
+				callbacks = mPendingCallbacks.toArray(new Runnable[mPendingCallbacks.size()]);
+				mPendingInvalidations.clear();
+				mPendingCallbacks.clear();
+			}
+
+			try
+			{
+				for(String packageName : packageNames)
+					invalidateNoFlush(packageName);
+			}
+			finally
+			{
+				for(Runnable callback : callbacks)
+					callback.run();
+			}
+
+			scheduleFlush();
+		}
+	}
+
+	private void scheduleFlush()
+	{
+		final Handler handler;
+
+		synchronized(mPendingInvalidations)
+		{
+			if(mHandler == null)
+				mHandler = new Handler(Looper.getMainLooper());
+
+			handler = mHandler;
+		}
+
+		handler.removeCallbacks(mFlushRunnable);
+		handler.postDelayed(mFlushRunnable, FLUSH_DELAY_MILLIS);
+	}
+
+	private void invalidateNoFlush(String packageName)
+	{
+		synchronized(this)
+		{
+			loadLabelsIfNeeded(Locale.getDefault().toString());
+			if(mLabels.remove(packageName) != null)
+				mDirty = true;
+		}
+
+		final String prefix = packageName + "@";
+		final File[] files = mIconDir.listFiles();
+
+		if(files != null)
+		{
+			for(File file : files)
+			{
+				if(file.getName().startsWith(prefix))
+					deleteIcon(file);
+			}
+		}
+	}
+
+	/**
+	 * Writes the labels to disk, if they have changed.
+	 */
+	public synchronized void flush()
+	{
+		if(!mDirty)
+			return;
+
+		FileOutputStream fos = null;
+
+		try
+		{
+			fos = mLabelFile.startWrite();
+
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+			out.writeInt(LABELS_VERSION);
+			out.writeUTF(mLocale);
+			out.writeInt(mLabels.size());
+
+			for(Map.Entry<String, LabelEntry> e : mLabels.entrySet())
+			{
+				out.writeUTF(e.getKey());
+				out.writeInt(e.getValue().versionCode);
+				out.writeLong(e.getValue().lastUpdateTime);
+				out.writeUTF(e.getValue().label);
+				out.writeInt(e.getValue().sortKey.length);
+				out.write(e.getValue().sortKey);
+			}
+
+			out.flush();
+			mLabelFile.finishWrite(fos);
+			mDirty = false;
+		}
+		catch(IOException e)
+		{
+			Log.w(TAG, e);
+			if(fos != null)
+				mLabelFile.failWrite(fos);
+		}
+	}
+
+	private void loadLabelsIfNeeded(String locale)
+	{
+		if(mLabels != null && locale.equals(mLocale))
+			return;
+
+		final boolean isInitialLoad = mLabels == null;
+
+		mLabels = new HashMap<>();
+		mLocale = locale;
+
+		if(!isInitialLoad)
+		{
+			// The locale has changed, so all labels are stale
+			mDirty = true;
+			return;
+		}
+
+		DataInputStream in = null;
+
+		try
+		{
+			in = new DataInputStream(new BufferedInputStream(mLabelFile.openRead()));
+			if(in.readInt() != LABELS_VERSION || !locale.equals(in.readUTF()))
+			{
+				mDirty = true;
+				return;
+			}
+
+			final int count = in.readInt();
+			for(int i = 0; i != count; ++i)
+			{
+				final String packageName = in.readUTF();
+				final int versionCode = in.readInt();
+				final long lastUpdateTime = in.readLong();
+				final String label = in.readUTF();
+				final byte[] sortKey = new byte[in.readInt()];
+				in.readFully(sortKey);
+
+				mLabels.put(packageName, new LabelEntry(versionCode, lastUpdateTime, label, sortKey));
+			}
+		}
+		catch(FileNotFoundException e)
+		{
+			// no labels cached yet
+		}
+		catch(IOException e)
+		{
+			Log.w(TAG, e);
+			mLabels.clear();
+			mDirty = true;
+		}
+		finally
+		{
+			Util.closeQuietly(in);
+		}
+	}
+
+	private byte[] computeSortKey(CharSequence label, String locale)
+	{
+		final Collator collator;
+
+		synchronized(this)
+		{
+			if(mCollator == null || !locale.equals(mCollatorLocale))
+			{
+				mCollator = Collator.getInstance();
+				mCollatorLocale = locale;
+			}
+
+			collator = mCollator;
+		}
+
+		// Collators are not thread-safe
+		synchronized(collator)
+		{
+			return collator.getCollationKey(label.toString()).toByteArray();
+		}
+	}
+
+	private void writeIcon(File file, Bitmap bitmap)
+	{
+		if(!mIconDir.isDirectory() && !mIconDir.mkdirs())
+			return;
+
+		// Several threads may be writing the same icon, so each one gets
+		// its own temporary file.
+		File tmp = null;
+		FileOutputStream out = null;
+		boolean ok = false;
+
+		try
+		{
+			tmp = File.createTempFile(file.getName(), ".tmp", mIconDir);
+			out = new FileOutputStream(tmp);
+			ok = bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+		}
+		catch(IOException e)
+		{
+			Log.w(TAG, e);
+		}
+		finally
+		{
+			Util.closeQuietly(out);
+		}
+
+		if(!ok || !tmp.renameTo(file))
+		{
+			if(tmp != null)
+				tmp.delete();
+
+			return;
+		}
+
+		synchronized(this)
+		{
+			if(mIconBytes == -1)
+				mIconBytes = computeIconBytes();
+			else
+				mIconBytes += file.length();
+
+			if(mIconBytes > MAX_ICON_BYTES)
+				trimIcons();
+		}
+	}
+
+	private void deleteIcon(File file)
+	{
+		final long length = file.length();
+		if(file.delete())
+		{
+			synchronized(this)
+			{
+				if(mIconBytes != -1)
+					mIconBytes -= length;
+			}
+		}
+	}
+
+	// Must be called with the lock held
+	private void trimIcons()
+	{
+		final File[] files = mIconDir.listFiles();
+		if(files == null)
+			return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				// Long.compare requires API 19
+				final long l = lhs.lastModified(), r = rhs.lastModified();
+				return l < r ? -1 : (l == r ? 0 : 1);
+			}
+		});
+
+		// Trim to 3/4 of the maximum, so that this doesn't have to be
+		// repeated for every new icon
+		for(File file : files)
+		{
+			if(mIconBytes <= MAX_ICON_BYTES * 3 / 4)
+				break;
+
+			final long length = file.length();
+			if(file.delete())
+				mIconBytes -= length;
+		}
+	}
+
+	private long computeIconBytes()
+	{
+		long bytes = 0;
+
+		final File[] files = mIconDir.listFiles();
+		if(files != null)
+		{
+			for(File file : files)
+				bytes += file.length();
+		}
+
+		return bytes;
+	}
+
+	private static String getIconFileName(PackageInfo pi) {
+		return pi.packageName + "@" + pi.versionCode + "-" + pi.lastUpdateTime + ".png";
+	}
+}
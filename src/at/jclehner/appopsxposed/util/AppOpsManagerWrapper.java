@@ -18,10 +18,15 @@
 
 package at.jclehner.appopsxposed.util;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import android.Manifest;
 import android.annotation.TargetApi;
@@ -33,6 +38,10 @@ import android.os.Build;
 @TargetApi(19)
 public class AppOpsManagerWrapper extends ObjectWrapper
 {
+	// Must come first, as all constants below are resolved using this map!
+	private static final long sClassInitStart = System.nanoTime();
+	private static final HashMap<String, Integer> sAppOpsManagerInts = readAppOpsManagerInts();
+
 	// These are all ops included in AOSP Lollipop
 	public static final int OP_NONE = getOpInt("OP_NONE");
 	public static final int OP_COARSE_LOCATION = getOpInt("OP_COARSE_LOCATION");
@@ -124,7 +133,7 @@ public class AppOpsManagerWrapper extends ObjectWrapper
 	/**
 	 * @deprecated In module code, use #getBootCompletedOp() instead!
 	 */
-	public static final int OP_BOOT_COMPLETED = getBootCompletedOp();
+	public static final int OP_BOOT_COMPLETED = findBootCompletedOp(false);
 
 	public static final int _NUM_OP = getNumOp();
 
@@ -137,58 +146,113 @@ public class AppOpsManagerWrapper extends ObjectWrapper
 	// CyanogenMod, Sony ROMs, etc.
 	public static final int MODE_ASK = getOpInt("MODE_ASK");
 
+	static
+	{
+		Util.debug("AppOpsManagerWrapper: resolved " + sAppOpsManagerInts.size() + " constants in "
+				+ (System.nanoTime() - sClassInitStart) / 1000 + "us");
+	}
+
+	/**
+	 * The calls that AppOpsManagerWrapper forwards to AppOpsService. By
+	 * default, these go through AppOpsManager; use {@link #setBackend(Backend)}
+	 * to substitute another implementation, such as the in-memory one used by
+	 * the benchmarks.
+	 */
+	public interface Backend
+	{
+		List<PackageOpsWrapper> getOpsForPackage(int uid, String packageName, int[] ops);
+		List<PackageOpsWrapper> getPackagesForOps(int[] ops);
+		int checkOpNoThrow(int op, int uid, String packageName);
+		void setMode(int code, int uid, String packageName, int mode);
+	}
+
+	private static volatile Backend sBackend;
+
 	private final Context mContext;
+	private final Backend mBackend;
 
 	public static AppOpsManagerWrapper from(Context context) {
 		return new AppOpsManagerWrapper(context);
 	}
 
+	/**
+	 * Sets the backend used by all instances created afterwards. Pass null
+	 * to use AppOpsManager again.
+	 */
+	public static void setBackend(Backend backend) {
+		sBackend = backend;
+	}
+
 	@TargetApi(19)
-	private AppOpsManagerWrapper(Context context) {
+	private AppOpsManagerWrapper(Context context)
+	{
 		super(context.getSystemService(Context.APP_OPS_SERVICE));
 		mContext = context;
+
+		final Backend backend = sBackend;
+		mBackend = backend != null ? backend : new AppOpsManagerBackend(mObj);
 	}
 
-	public List<PackageOpsWrapper> getOpsForPackage(int uid, String packageName, int[] ops)
-	{
-		return PackageOpsWrapper.convertList((List<?>) call("getOpsForPackage",
-				new Class<?>[] { int.class, String.class, int[].class },
-				uid, packageName, ops));
+	public List<PackageOpsWrapper> getOpsForPackage(int uid, String packageName, int[] ops) {
+		return mBackend.getOpsForPackage(uid, packageName, ops);
 	}
 
-	public List<PackageOpsWrapper> getPackagesForOps(int[] ops)
-	{
-		return PackageOpsWrapper.convertList((List<?>) call(
-				"getPackagesForOps", new Class<?>[] { int[].class }, ops));
+	public List<PackageOpsWrapper> getPackagesForOps(int[] ops) {
+		return mBackend.getPackagesForOps(ops);
 	}
 
-	public List<PackageOpsWrapper> getAllPackagesForOps(int[] ops)
+	/**
+	 * Like {@link #getPackagesForOps(int[])}, but only returns packages that
+	 * are installed for the current user.
+	 */
+	public List<PackageOpsWrapper> getAllPackagesForOps(int[] ops) {
+		return filterInstalledPackages(getPackagesForOps(ops));
+	}
+
+	/**
+	 * Returns the entries of the specified list that belong to a package that
+	 * is installed for the current user, in the order of the installed packages.
+	 * <p>
+	 * Packages that have never used or changed an op are missing from
+	 * getPackagesForOps's result, but getOpsForPackage doesn't return anything
+	 * for them either, so they are skipped.
+	 */
+	public List<PackageOpsWrapper> filterInstalledPackages(List<PackageOpsWrapper> packages)
 	{
+		final HashMap<String, PackageOpsWrapper> map = new HashMap<>();
+		for(PackageOpsWrapper pkg : packages)
+			map.put(pkg.getUid() + ":" + pkg.getPackageName(), pkg);
+
 		final List<PackageOpsWrapper> pkgs = new ArrayList<>();
 
 		for(PackageInfo pi : mContext.getPackageManager().getInstalledPackages(0))
 		{
-			final List<PackageOpsWrapper> pkg = getOpsForPackage(pi.applicationInfo.uid,
-					pi.packageName, ops);
-
-			if(pkg.size() == 1)
-				pkgs.add(pkg.get(0));
-			else
-				Util.log(pi.packageName + ": pkg.size()=" + pkg.size());
+			final PackageOpsWrapper pow = map.get(pi.applicationInfo.uid + ":" + pi.packageName);
+			if(pow != null)
+				pkgs.add(pow);
 		}
 
 		return pkgs;
 	}
 
-	public List<PackageOpsWrapper> getPackagesForOpsMerged(int[] ops)
+	public List<PackageOpsWrapper> getPackagesForOpsMerged(int[] ops) {
+		return mergePackages(getPackagesForOps(ops));
+	}
+
+	/**
+	 * Merges entries of the same package, but with different uids (i.e.
+	 * users), into one, using the uid of the first entry.
+	 */
+	public static List<PackageOpsWrapper> mergePackages(List<PackageOpsWrapper> packages)
 	{
 		final HashMap<String, PackageOpsWrapper> pkgMap = new HashMap<>();
-		for(PackageOpsWrapper pkg : getPackagesForOps(ops))
+		for(PackageOpsWrapper pkg : packages)
 		{
 			PackageOpsWrapper pow = pkgMap.get(pkg.getPackageName());
 			if(pow == null)
 			{
-				pow = new PackageOpsWrapper(pkg.getPackageName(), pkg.getUid(), pkg.getOps());
+				pow = new PackageOpsWrapper(pkg.getPackageName(), pkg.getUid(),
+						new ArrayList<>(pkg.getOps()));
 				pkgMap.put(pkg.getPackageName(), pow);
 			}
 			else
@@ -222,27 +286,169 @@ public class AppOpsManagerWrapper extends ObjectWrapper
 		return ret;
 	}
 
-	public int checkOpNoThrow(int op, int uid, String packageName)
+	public int checkOpNoThrow(int op, int uid, String packageName) {
+		return mBackend.checkOpNoThrow(op, uid, packageName);
+	}
+
+	/**
+	 * Registers a callback that is invoked whenever the mode of the specified
+	 * op changes. If packageName is null, changes for all packages are reported.
+	 */
+	@TargetApi(19)
+	public void startWatchingMode(int op, String packageName, AppOpsManager.OnOpChangedListener callback)
 	{
-		return call("checkOpNoThrow", new Class<?>[] { int.class, int.class, String.class },
-				op, uid, packageName);
+		call("startWatchingMode", new Class<?>[] { int.class, String.class,
+				AppOpsManager.OnOpChangedListener.class }, op, packageName, callback);
 	}
 
 	public void setMode(int code, int uid, String packageName, int mode)
 	{
-		call("setMode", new Class<?>[] { int.class, int.class, String.class, int.class },
-				code, uid, packageName, mode);
+		setModeInternal(code, uid, packageName, mode);
+		AppOpsSnapshot.invalidate();
+	}
+
+	/**
+	 * Applies multiple mode changes at once. AppOpsService stores modes
+	 * per switch op (see {@link #opToSwitch(int)}), so changes to ops
+	 * sharing the same switch are coalesced (the last one wins), and
+	 * changes that wouldn't alter the switch op's current mode are skipped.
+	 *
+	 * @return The number of changes actually applied.
+	 */
+	public int setModes(List<ModeChange> changes)
+	{
+		final LinkedHashMap<String, ModeChange> unique = new LinkedHashMap<>();
+		for(ModeChange change : changes)
+		{
+			final String key = getModeKey(change.uid, change.packageName, change.op);
+			// Remove first, so that the entry's position reflects the last change
+			unique.remove(key);
+			unique.put(key, change);
+		}
+
+		// Changes are skipped if the op already has the requested mode. The
+		// AppOpsSnapshot can't be used for this, as it may be outdated if the
+		// mode was changed by someone else, so the current modes are fetched
+		// using a single call.
+		final HashMap<String, Integer> currentModes = getCurrentModes(unique.values());
+		int count = 0;
+
+		try
+		{
+			for(Map.Entry<String, ModeChange> entry : unique.entrySet())
+			{
+				final ModeChange change = entry.getValue();
+				final Integer mode = currentModes.get(entry.getKey());
+				if(mode != null && mode == change.mode)
+					continue;
+
+				setModeInternal(change.op, change.uid, change.packageName, change.mode);
+				++count;
+			}
+		}
+		finally
+		{
+			if(count != 0)
+				AppOpsSnapshot.invalidate();
+		}
+
+		Util.debug("setModes: applied " + count + " of " + changes.size() + " changes");
+
+		return count;
+	}
+
+	// Returns the modes of the switch ops affected by the changes, keyed by
+	// getModeKey(). Only the switch ops are queried, as the entries of the
+	// other ops may be stale. Ops that AppOpsService has no entry for are
+	// missing.
+	private HashMap<String, Integer> getCurrentModes(Collection<ModeChange> changes)
+	{
+		final HashMap<String, Integer> modes = new HashMap<>();
+		if(changes.isEmpty())
+			return modes;
+
+		final BitSet opSet = new BitSet();
+		for(ModeChange change : changes)
+			opSet.set(opToSwitch(change.op));
+
+		final int[] ops = new int[opSet.cardinality()];
+		for(int i = 0, op = opSet.nextSetBit(0); op >= 0; op = opSet.nextSetBit(op + 1))
+			ops[i++] = op;
+
+		for(PackageOpsWrapper pkg : getPackagesForOps(ops))
+		{
+			for(OpEntryWrapper entry : pkg.getOps())
+			{
+				modes.put(getModeKey(pkg.getUid(), pkg.getPackageName(), entry.getOp()),
+						entry.getMode());
+			}
+		}
+
+		return modes;
+	}
+
+	private static String getModeKey(int uid, String packageName, int op) {
+		return uid + ":" + packageName + ":" + opToSwitch(op);
+	}
+
+	private void setModeInternal(int code, int uid, String packageName, int mode) {
+		mBackend.setMode(code, uid, packageName, mode);
+	}
+
+	public static String opToName(int op)
+	{
+		final OpTables tables = OpTables.INSTANCE;
+		if(tables.has(op, OpTables.NAME))
+			return tables.names[op];
+
+		return opToNameUncached(op);
 	}
 
-	public static String opToName(int op) {
+	public static String opToPermission(int op)
+	{
+		final OpTables tables = OpTables.INSTANCE;
+		if(tables.has(op, OpTables.PERMISSION))
+			return tables.permissions[op];
+
+		return opToPermissionUncached(op);
+	}
+
+	public static int opToSwitch(int op)
+	{
+		final OpTables tables = OpTables.INSTANCE;
+		if(tables.has(op, OpTables.SWITCH))
+			return tables.switches[op];
+
+		return opToSwitchUncached(op);
+	}
+
+	public static int opToDefaultMode(int op)
+	{
+		final OpTables tables = OpTables.INSTANCE;
+		if(tables.has(op, OpTables.DEFAULT_MODE))
+			return tables.defaultModes[op];
+
+		return opToDefaultModeUncached(op);
+	}
+
+	public static boolean opAllowsReset(int op)
+	{
+		final OpTables tables = OpTables.INSTANCE;
+		if(tables.has(op, OpTables.ALLOWS_RESET))
+			return tables.allowsReset[op];
+
+		return opAllowsResetUncached(op);
+	}
+
+	private static String opToNameUncached(int op) {
 		return callStatic(AppOpsManager.class, "opToName", new Class<?>[] { int.class }, op);
 	}
 
-	public static String opToPermission(int op) {
+	private static String opToPermissionUncached(int op) {
 		return callStatic(AppOpsManager.class, "opToPermission", new Class<?>[] { int.class }, op);
 	}
 
-	public static int opToSwitch(int op) {
+	private static int opToSwitchUncached(int op) {
 		return callStatic(AppOpsManager.class, "opToSwitch", new Class<?>[] { int.class }, op);
 	}
 
@@ -253,7 +459,7 @@ public class AppOpsManagerWrapper extends ObjectWrapper
 	private static int sOpToDefaultModeType = 0;
 	private static int[] sOpDefaultModes;
 
-	public static int opToDefaultMode(int op)
+	private static int opToDefaultModeUncached(int op)
 	{
 		// default op modes were introduced in KitKat
 		if(Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT)
@@ -280,7 +486,7 @@ public class AppOpsManagerWrapper extends ObjectWrapper
 		{
 			Util.debug(e);
 			++sOpToDefaultModeType;
-			return opToDefaultMode(op);
+			return opToDefaultModeUncached(op);
 		}
 		catch(Exception e)
 		{
@@ -298,7 +504,7 @@ public class AppOpsManagerWrapper extends ObjectWrapper
 
 	private static boolean sUseOpAllowsReset = true;
 
-	public static boolean opAllowsReset(int op)
+	private static boolean opAllowsResetUncached(int op)
 	{
 		if(sUseOpAllowsReset)
 		{
@@ -359,23 +565,63 @@ public class AppOpsManagerWrapper extends ObjectWrapper
 
 	private static int getOpInt(String opName)
 	{
+		final Integer value = sAppOpsManagerInts.get(opName);
+		return value != null ? value : -1;
+	}
+
+	/**
+	 * Reads all static int fields of AppOpsManager (OP_*, MODE_*, _NUM_OP, etc.)
+	 * in one go. Fields that can't be read are simply skipped, in which
+	 * case the corresponding constant will be -1.
+	 */
+	private static HashMap<String, Integer> readAppOpsManagerInts()
+	{
+		final HashMap<String, Integer> ints = new HashMap<>();
+
+		final Field[] fields;
+
 		try
 		{
-			return getStatic(AppOpsManager.class, opName);
+			fields = AppOpsManager.class.getDeclaredFields();
 		}
-		catch(ReflectiveException e)
+		catch(Throwable t)
 		{
-			return -1;
+			// Includes NoClassDefFoundError, in case there's no AppOpsManager at all
+			Util.log(t);
+			return ints;
 		}
+
+		for(Field field : fields)
+		{
+			final int modifiers = field.getModifiers();
+			if(!Modifier.isStatic(modifiers) || field.getType() != int.class)
+				continue;
+
+			try
+			{
+				field.setAccessible(true);
+				ints.put(field.getName(), field.getInt(null));
+			}
+			catch(IllegalAccessException|RuntimeException e)
+			{
+				Util.debug(e);
+			}
+		}
+
+		return ints;
 	}
 
-	private static int getOpWithPermission(String permission)
+	private static int getOpWithPermission(String permission, boolean useTables)
 	{
-		// Must not use _NUM_OP here, has this will causes problems
-		// with static initialization order
-		for(int op = 0; op < getNumOp(); ++op)
+		// Must not use _NUM_OP or OpTables during static initialization,
+		// as this will cause problems with static initialization order
+		final int numOp = useTables ? _NUM_OP : getNumOp();
+		for(int op = 0; op < numOp; ++op)
 		{
-			if(permission.equals(opToPermission(op)))
+			final String opPermission = useTables ? opToPermission(op)
+					: opToPermissionUncached(op);
+
+			if(permission.equals(opPermission))
 			{
 				//Util.debug("Found op #" + op + " with permission " + permission);
 				return op;
@@ -387,10 +633,14 @@ public class AppOpsManagerWrapper extends ObjectWrapper
 		return -1;
 	}
 
-	public static int getBootCompletedOp()
+	public static int getBootCompletedOp() {
+		return findBootCompletedOp(true);
+	}
+
+	private static int findBootCompletedOp(boolean useTables)
 	{
 		final int op = getOpInt("OP_BOOT_COMPLETED");
-		return op == -1 ? getOpWithPermission(Manifest.permission.RECEIVE_BOOT_COMPLETED) : op;
+		return op == -1 ? getOpWithPermission(Manifest.permission.RECEIVE_BOOT_COMPLETED, useTables) : op;
 	}
 
 	private static int getNumOp()
@@ -452,14 +702,172 @@ public class AppOpsManagerWrapper extends ObjectWrapper
 		}
 	}
 
+	/**
+	 * Dense tables of the values returned by AppOpsManager's static opTo*
+	 * functions, filled using reflection upon first use. Ops outside the
+	 * range of 0 to _NUM_OP (e.g. HTC's ops), or ops for which a value
+	 * couldn't be determined, are handled by the reflective fallbacks.
+	 */
+	private static final class OpTables
+	{
+		static final int SWITCH = 1;
+		static final int NAME = 1 << 1;
+		static final int PERMISSION = 1 << 2;
+		static final int DEFAULT_MODE = 1 << 3;
+		static final int ALLOWS_RESET = 1 << 4;
+
+		static final OpTables INSTANCE = new OpTables();
+
+		final int[] switches;
+		final String[] names;
+		final String[] permissions;
+		final int[] defaultModes;
+		final boolean[] allowsReset;
+
+		// Bitmask of the values available for each op
+		private final int[] mAvailable;
+
+		private OpTables()
+		{
+			final int numOp = Math.max(getNumOp(), 0);
+
+			switches = new int[numOp];
+			names = new String[numOp];
+			permissions = new String[numOp];
+			defaultModes = new int[numOp];
+			allowsReset = new boolean[numOp];
+			mAvailable = new int[numOp];
+
+			for(int op = 0; op != numOp; ++op)
+			{
+				try
+				{
+					switches[op] = opToSwitchUncached(op);
+					mAvailable[op] |= SWITCH;
+				}
+				catch(RuntimeException e)
+				{
+					Util.debug(e);
+				}
+
+				try
+				{
+					names[op] = opToNameUncached(op);
+					mAvailable[op] |= NAME;
+				}
+				catch(RuntimeException e)
+				{
+					Util.debug(e);
+				}
+
+				try
+				{
+					permissions[op] = opToPermissionUncached(op);
+					mAvailable[op] |= PERMISSION;
+				}
+				catch(RuntimeException e)
+				{
+					Util.debug(e);
+				}
+
+				try
+				{
+					defaultModes[op] = opToDefaultModeUncached(op);
+					mAvailable[op] |= DEFAULT_MODE;
+				}
+				catch(RuntimeException e)
+				{
+					Util.debug(e);
+				}
+
+				try
+				{
+					allowsReset[op] = opAllowsResetUncached(op);
+					mAvailable[op] |= ALLOWS_RESET;
+				}
+				catch(RuntimeException e)
+				{
+					Util.debug(e);
+				}
+			}
+		}
+
+		boolean has(int op, int what) {
+			return op >= 0 && op < mAvailable.length && (mAvailable[op] & what) != 0;
+		}
+	}
+
+	private static class AppOpsManagerBackend extends ObjectWrapper implements Backend
+	{
+		AppOpsManagerBackend(Object appOpsManager) {
+			super(appOpsManager);
+		}
+
+		@Override
+		public List<PackageOpsWrapper> getOpsForPackage(int uid, String packageName, int[] ops)
+		{
+			return PackageOpsWrapper.convertList((List<?>) call("getOpsForPackage",
+					new Class<?>[] { int.class, String.class, int[].class },
+					uid, packageName, ops));
+		}
+
+		@Override
+		public List<PackageOpsWrapper> getPackagesForOps(int[] ops)
+		{
+			return PackageOpsWrapper.convertList((List<?>) call(
+					"getPackagesForOps", new Class<?>[] { int[].class }, ops));
+		}
+
+		@Override
+		public int checkOpNoThrow(int op, int uid, String packageName)
+		{
+			return call("checkOpNoThrow", new Class<?>[] { int.class, int.class, String.class },
+					op, uid, packageName);
+		}
+
+		@Override
+		public void setMode(int code, int uid, String packageName, int mode)
+		{
+			call("setMode", new Class<?>[] { int.class, int.class, String.class, int.class },
+					code, uid, packageName, mode);
+		}
+	}
+
+	public static class ModeChange
+	{
+		public final int op;
+		public final int uid;
+		public final String packageName;
+		public final int mode;
+
+		public ModeChange(int op, int uid, String packageName, int mode)
+		{
+			this.op = op;
+			this.uid = uid;
+			this.packageName = packageName;
+			this.mode = mode;
+		}
+	}
+
+	/**
+	 * Snapshot of an AppOpsManager.PackageOps object. All values, including
+	 * the list of ops, are read once upon conversion, so the getters never
+	 * use reflection.
+	 */
 	public static class PackageOpsWrapper extends ObjectWrapper
 	{
-		private String mPackageName;
-		private int mUid;
-		private List<OpEntryWrapper> mEntries;
+		private final String mPackageName;
+		private final int mUid;
+		private final List<OpEntryWrapper> mEntries;
 
-		private PackageOpsWrapper(Object obj) {
-			super(obj);
+		private PackageOpsWrapper(Object obj)
+		{
+			super(null);
+
+			final ObjectWrapper pkgOps = new ObjectWrapper(obj);
+			mPackageName = pkgOps.call("getPackageName");
+			mUid = pkgOps.<Integer>call("getUid");
+			mEntries = OpEntryWrapper.convertList((List<?>) pkgOps.call("getOps"));
 		}
 
 		public PackageOpsWrapper(String packageName, int uid, List<OpEntryWrapper> entries)
@@ -483,37 +891,24 @@ public class AppOpsManagerWrapper extends ObjectWrapper
 			return converted;
 		}
 
-		public String getPackageName()
-		{
-			if(mObj != null)
-				return call("getPackageName");
-
+		public String getPackageName() {
 			return mPackageName;
 		}
 
-		public int getUid()
-		{
-			if(mObj != null)
-				return (Integer) call("getUid");
-
+		public int getUid() {
 			return mUid;
 		}
 
-		public List<OpEntryWrapper> getOps()
-		{
-			if(mObj != null)
-				return OpEntryWrapper.convertList((List<?>) call("getOps"));
-
+		public List<OpEntryWrapper> getOps() {
 			return mEntries;
 		}
 	}
 
+	/**
+	 * Snapshot of an AppOpsManager.OpEntry object; see PackageOpsWrapper.
+	 */
 	public static class OpEntryWrapper extends ObjectWrapper
 	{
-		private OpEntryWrapper(Object obj) {
-			super(obj);
-		}
-
 		private int mOp;
 		private int mMode;
 		private long mTime;
@@ -522,6 +917,44 @@ public class AppOpsManagerWrapper extends ObjectWrapper
 		private int mProxyUid = -1;
 		private String mProxyPackageName = null;
 
+		private OpEntryWrapper(Object obj)
+		{
+			super(null);
+
+			final ObjectWrapper entry = new ObjectWrapper(obj);
+			mOp = entry.<Integer>call("getOp");
+			mMode = entry.<Integer>call("getMode");
+			mTime = entry.<Long>call("getTime");
+			// A running op has a duration of -1; getDuration() would return
+			// the time elapsed so far instead.
+			mDuration = entry.<Boolean>call("isRunning") ? -1 : entry.<Integer>call("getDuration");
+
+			// The remaining values are only used for display purposes, so
+			// don't fail the whole conversion if a ROM lacks them.
+
+			try
+			{
+				mRejectTime = entry.<Long>call("getRejectTime");
+			}
+			catch(ReflectiveException e)
+			{
+				Util.debug(e);
+			}
+
+			if(Build.VERSION.SDK_INT > Build.VERSION_CODES.LOLLIPOP_MR1)
+			{
+				try
+				{
+					mProxyUid = entry.<Integer>call("getProxyUid");
+					mProxyPackageName = entry.call("getProxyPackageName");
+				}
+				catch(ReflectiveException e)
+				{
+					Util.debug(e);
+				}
+			}
+		}
+
 		public OpEntryWrapper(int op, int mode, long time, long rejectTime, int duration)
 		{
 			super(null);
@@ -553,51 +986,27 @@ public class AppOpsManagerWrapper extends ObjectWrapper
 			return converted;
 		}
 
-		public int getOp()
-		{
-			if(mObj != null)
-				return (Integer) call("getOp");
-
+		public int getOp() {
 			return mOp;
 		}
 
-		public int getMode()
-		{
-			if(mObj != null)
-				return (Integer) call("getMode");
-
+		public int getMode() {
 			return mMode;
 		}
 
-		public long getTime()
-		{
-			if(mObj != null)
-				return (Long) call("getTime");
-
+		public long getTime() {
 			return mTime;
 		}
 
-		public long getRejectTime()
-		{
-			if(mObj != null)
-				return (Long) call("getRejectTime");
-
+		public long getRejectTime() {
 			return mRejectTime;
 		}
 
-		public boolean isRunning()
-		{
-			if(mObj != null)
-				return (Boolean) call("isRunning");
-
+		public boolean isRunning() {
 			return mDuration == -1;
 		}
 
-		public int getDuration()
-		{
-			if(mObj != null)
-				return (Integer) call("getDuration");
-
+		public int getDuration() {
 			return mDuration == -1 ? (int)(System.currentTimeMillis() - mTime) : mDuration;
 		}
 
@@ -606,9 +1015,6 @@ public class AppOpsManagerWrapper extends ObjectWrapper
 			if(Build.VERSION.SDK_INT <= Build.VERSION_CODES.LOLLIPOP_MR1)
 				return -1;
 
-			if(mObj != null)
-				return (Integer) call("getProxyUid");
-
 			return mProxyUid;
 		}
 
@@ -617,9 +1023,6 @@ public class AppOpsManagerWrapper extends ObjectWrapper
 			if(Build.VERSION.SDK_INT <= Build.VERSION_CODES.LOLLIPOP_MR1)
 				return null;
 
-			if(mObj != null)
-				return (String) call("getProxyPackageName");
-
 			return mProxyPackageName;
 		}
 	}
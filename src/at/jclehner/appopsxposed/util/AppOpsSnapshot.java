@@ -0,0 +1,335 @@
+/*
+ * AppOpsXposed - AppOps for Android 4.3+
+ * Copyright (C) 2013-2015 Joseph C. Lehner
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.jclehner.appopsxposed.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
+import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.OpEntryWrapper;
+import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.PackageOpsWrapper;
+
+/**
+ * Immutable snapshot of all ops known to AppOpsService, shared by all
+ * screens of this process. This includes packages of other users, and
+ * packages unknown to the PackageManager; {@link #getPackages()} only
+ * returns packages that are installed for the current user.
+ * <p>
+ * A snapshot is invalidated by calling {@link #invalidate()}, which is done
+ * by AppOpsManagerWrapper.setMode. Package changes are handled using
+ * {@link #invalidatePackage(String)}, in which case only the ops of that
+ * package are queried again. Since apps keep using their ops in the
+ * meantime, snapshots also expire after a while, so that op usage times
+ * don't become too stale.
+ */
+public class AppOpsSnapshot
+{
+	private static final long MAX_AGE_MILLIS = 30 * 1000;
+
+	private static final Object sBuildLock = new Object();
+	private static AppOpsSnapshot sCurrent;
+	private static int sGeneration = 0;
+	private static int sFullInvalidations = 0;
+	private static final Set<String> sDirtyPackages = new HashSet<>();
+
+	private final int mGeneration;
+	private final long mTimestamp;
+	private final List<PackageOpsWrapper> mAllPackages;
+	private final List<PackageOpsWrapper> mPackages;
+	private final HashMap<String, PackageOpsWrapper> mPackageMap = new HashMap<>();
+
+	/**
+	 * Returns the current snapshot, querying AppOpsService if there is
+	 * no valid one. Concurrent callers will wait for a single scan
+	 * instead of each doing their own.
+	 */
+	public static AppOpsSnapshot get(Context context)
+	{
+		synchronized(sBuildLock)
+		{
+			final int generation;
+			final int fullInvalidations;
+			final AppOpsSnapshot base;
+			final Set<String> dirtyPackages;
+
+			synchronized(AppOpsSnapshot.class)
+			{
+				if(sCurrent != null && sCurrent.isValid())
+					return sCurrent;
+
+				generation = sGeneration;
+				fullInvalidations = sFullInvalidations;
+				base = sCurrent != null && !sCurrent.isExpired() ? sCurrent : null;
+				dirtyPackages = new HashSet<>(sDirtyPackages);
+				sDirtyPackages.clear();
+			}
+
+			final AppOpsSnapshot snapshot;
+
+			try
+			{
+				if(base != null)
+					snapshot = base.update(context, generation, dirtyPackages);
+				else
+				{
+					final AppOpsManagerWrapper appOps = AppOpsManagerWrapper.from(context);
+					final List<PackageOpsWrapper> allPackages = appOps.getPackagesForOps(null);
+
+					snapshot = new AppOpsSnapshot(generation, SystemClock.elapsedRealtime(),
+							allPackages, appOps.filterInstalledPackages(allPackages));
+				}
+			}
+			catch(RuntimeException e)
+			{
+				synchronized(AppOpsSnapshot.class)
+				{
+					if(fullInvalidations == sFullInvalidations)
+						sDirtyPackages.addAll(dirtyPackages);
+				}
+
+				throw e;
+			}
+
+			synchronized(AppOpsSnapshot.class)
+			{
+				// Don't cache the result if we were invalidated while scanning.
+				// Packages invalidated in the meantime are still in sDirtyPackages,
+				// and will be updated upon the next call.
+				if(fullInvalidations == sFullInvalidations)
+					sCurrent = snapshot;
+			}
+
+			return snapshot;
+		}
+	}
+
+	public static synchronized void invalidate()
+	{
+		++sGeneration;
+		++sFullInvalidations;
+		sCurrent = null;
+		sDirtyPackages.clear();
+	}
+
+	/**
+	 * Invalidates the ops of a single package, which has been added,
+	 * changed or removed.
+	 */
+	public static synchronized void invalidatePackage(String packageName)
+	{
+		++sGeneration;
+		sDirtyPackages.add(packageName);
+	}
+
+	/**
+	 * Returns the generation of the current snapshot. The generation
+	 * changes whenever the snapshot is invalidated.
+	 */
+	public static synchronized int getCurrentGeneration()
+	{
+		if(sCurrent != null && sCurrent.isExpired())
+			invalidate();
+
+		return sGeneration;
+	}
+
+	// installedPackages must be a subset of allPackages
+	private AppOpsSnapshot(int generation, long timestamp, List<PackageOpsWrapper> allPackages,
+			List<PackageOpsWrapper> installedPackages)
+	{
+		mGeneration = generation;
+		mTimestamp = timestamp;
+
+		final List<PackageOpsWrapper> all = new ArrayList<>(allPackages.size());
+		for(PackageOpsWrapper pkg : allPackages)
+		{
+			final PackageOpsWrapper copy = new PackageOpsWrapper(pkg.getPackageName(), pkg.getUid(),
+					Collections.unmodifiableList(new ArrayList<>(pkg.getOps())));
+
+			all.add(copy);
+			mPackageMap.put(getKey(copy.getUid(), copy.getPackageName()), copy);
+		}
+
+		final List<PackageOpsWrapper> installed = new ArrayList<>(installedPackages.size());
+		for(PackageOpsWrapper pkg : installedPackages)
+			installed.add(mPackageMap.get(getKey(pkg.getUid(), pkg.getPackageName())));
+
+		mAllPackages = Collections.unmodifiableList(all);
+		mPackages = Collections.unmodifiableList(installed);
+	}
+
+	public int getGeneration() {
+		return mGeneration;
+	}
+
+	/**
+	 * Returns the ops of all packages that are installed for the current user.
+	 */
+	public List<PackageOpsWrapper> getPackages() {
+		return mPackages;
+	}
+
+	/**
+	 * Equivalent to AppOpsManager.getPackagesForOps.
+	 */
+	public List<PackageOpsWrapper> getPackagesForOps(int[] ops)
+	{
+		if(ops == null)
+			return mAllPackages;
+
+		final BitSet opSet = toBitSet(ops);
+		final List<PackageOpsWrapper> ret = new ArrayList<>();
+
+		for(PackageOpsWrapper pkg : mAllPackages)
+		{
+			final PackageOpsWrapper filtered = filter(pkg, opSet);
+			if(filtered != null)
+				ret.add(filtered);
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Equivalent to AppOpsManagerWrapper.getPackagesForOpsMerged.
+	 */
+	public List<PackageOpsWrapper> getPackagesForOpsMerged(int[] ops) {
+		return AppOpsManagerWrapper.mergePackages(getPackagesForOps(ops));
+	}
+
+	/**
+	 * Equivalent to AppOpsManager.getOpsForPackage.
+	 */
+	public List<PackageOpsWrapper> getOpsForPackage(int uid, String packageName, int[] ops)
+	{
+		final List<PackageOpsWrapper> ret = new ArrayList<>(1);
+
+		final PackageOpsWrapper pkg = mPackageMap.get(getKey(uid, packageName));
+		if(pkg != null)
+		{
+			final PackageOpsWrapper filtered = ops != null ? filter(pkg, toBitSet(ops)) : pkg;
+			if(filtered != null)
+				ret.add(filtered);
+		}
+
+		return ret;
+	}
+
+	private AppOpsSnapshot update(Context context, int generation, Set<String> packageNames)
+	{
+		// Only the current user's entries of these packages are queried again,
+		// so those of other users are kept.
+		final Set<String> staleKeys = new HashSet<>();
+
+		final List<PackageOpsWrapper> packages = new ArrayList<>(mPackages.size());
+		for(PackageOpsWrapper pkg : mPackages)
+		{
+			if(!packageNames.contains(pkg.getPackageName()))
+				packages.add(pkg);
+			else
+				staleKeys.add(getKey(pkg.getUid(), pkg.getPackageName()));
+		}
+
+		final List<PackageOpsWrapper> allPackages = new ArrayList<>(mAllPackages.size());
+		for(PackageOpsWrapper pkg : mAllPackages)
+		{
+			if(!staleKeys.contains(getKey(pkg.getUid(), pkg.getPackageName())))
+				allPackages.add(pkg);
+		}
+
+		final AppOpsManagerWrapper appOps = AppOpsManagerWrapper.from(context);
+		final PackageManager pm = context.getPackageManager();
+
+		for(String packageName : packageNames)
+		{
+			final int uid;
+
+			try
+			{
+				uid = pm.getApplicationInfo(packageName, 0).uid;
+			}
+			catch(PackageManager.NameNotFoundException e)
+			{
+				// package was removed
+				continue;
+			}
+
+			final List<PackageOpsWrapper> pkgOps = appOps.getOpsForPackage(uid, packageName, null);
+			packages.addAll(pkgOps);
+			allPackages.addAll(pkgOps);
+		}
+
+		// Keep the original timestamp, as the other packages' data is
+		// just as old as before.
+		return new AppOpsSnapshot(generation, mTimestamp, allPackages, packages);
+	}
+
+	private boolean isValid() {
+		return mGeneration == sGeneration && !isExpired();
+	}
+
+	private boolean isExpired() {
+		return SystemClock.elapsedRealtime() - mTimestamp >= MAX_AGE_MILLIS;
+	}
+
+	private static PackageOpsWrapper filter(PackageOpsWrapper pkg, BitSet ops)
+	{
+		List<OpEntryWrapper> entries = null;
+
+		for(OpEntryWrapper entry : pkg.getOps())
+		{
+			if(entry.getOp() >= 0 && ops.get(entry.getOp()))
+			{
+				if(entries == null)
+					entries = new ArrayList<>();
+
+				entries.add(entry);
+			}
+		}
+
+		if(entries == null)
+			return null;
+
+		return new PackageOpsWrapper(pkg.getPackageName(), pkg.getUid(),
+				Collections.unmodifiableList(entries));
+	}
+
+	private static BitSet toBitSet(int[] ops)
+	{
+		final BitSet bs = new BitSet();
+		for(int op : ops)
+		{
+			if(op >= 0)
+				bs.set(op);
+		}
+
+		return bs;
+	}
+
+	private static String getKey(int uid, String packageName) {
+		return uid + ":" + packageName;
+	}
+}
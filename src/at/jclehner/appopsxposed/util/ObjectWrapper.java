@@ -3,6 +3,8 @@ package at.jclehner.appopsxposed.util;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
 
 import android.util.Log;
 
@@ -18,6 +20,13 @@ public class ObjectWrapper
 		}
 	}
 
+	// Reflective handles, keyed by class and member signature. Lookups that
+	// failed are remembered as well (using NO_SUCH_MEMBER), since some callers
+	// (e.g. AppOpsManagerWrapper.opToDefaultMode) probe for members that are
+	// not available on all ROMs.
+	private static final Map<Class<?>, Map<String, Object>> sMemberCache = new HashMap<>();
+	private static final Object NO_SUCH_MEMBER = new Object();
+
 	protected final Object mObj;
 
 	public ObjectWrapper(Object obj) {
@@ -166,17 +175,89 @@ public class ObjectWrapper
 
 	private static Field getDeclaredField(Class<?> clazz, String name) throws NoSuchFieldException
 	{
-		final Field f = clazz.getDeclaredField(name);
-		f.setAccessible(true);
-		return f;
+		final Object cached = getCachedMember(clazz, name);
+		if(cached instanceof Field)
+			return (Field) cached;
+		else if(cached == NO_SUCH_MEMBER)
+			throw new NoSuchFieldException(clazz.getName() + "." + name);
+
+		try
+		{
+			final Field f = clazz.getDeclaredField(name);
+			f.setAccessible(true);
+			putCachedMember(clazz, name, f);
+			return f;
+		}
+		catch(NoSuchFieldException e)
+		{
+			putCachedMember(clazz, name, NO_SUCH_MEMBER);
+			throw e;
+		}
 	}
 
 	private static Method getDeclaredMethod(Class<?> clazz, String name, Class<?>[] parameterTypes)
 			throws NoSuchMethodException
 	{
-		final Method m = clazz.getDeclaredMethod(name, parameterTypes);
-		m.setAccessible(true);
-		return m;
+		final String key = getMethodKey(name, parameterTypes);
+		final Object cached = getCachedMember(clazz, key);
+		if(cached instanceof Method)
+			return (Method) cached;
+		else if(cached == NO_SUCH_MEMBER)
+			throw new NoSuchMethodException(clazz.getName() + "." + key);
+
+		try
+		{
+			final Method m = clazz.getDeclaredMethod(name, parameterTypes);
+			m.setAccessible(true);
+			putCachedMember(clazz, key, m);
+			return m;
+		}
+		catch(NoSuchMethodException e)
+		{
+			putCachedMember(clazz, key, NO_SUCH_MEMBER);
+			throw e;
+		}
+	}
+
+	private static Object getCachedMember(Class<?> clazz, String key)
+	{
+		synchronized(sMemberCache)
+		{
+			final Map<String, Object> members = sMemberCache.get(clazz);
+			return members != null ? members.get(key) : null;
+		}
+	}
+
+	private static void putCachedMember(Class<?> clazz, String key, Object member)
+	{
+		synchronized(sMemberCache)
+		{
+			Map<String, Object> members = sMemberCache.get(clazz);
+			if(members == null)
+			{
+				members = new HashMap<>();
+				sMemberCache.put(clazz, members);
+			}
+
+			members.put(key, member);
+		}
+	}
+
+	private static String getMethodKey(String name, Class<?>[] parameterTypes)
+	{
+		final StringBuilder sb = new StringBuilder(name).append('(');
+		if(parameterTypes != null)
+		{
+			for(int i = 0; i != parameterTypes.length; ++i)
+			{
+				if(i != 0)
+					sb.append(',');
+
+				sb.append(parameterTypes[i].getName());
+			}
+		}
+
+		return sb.append(')').toString();
 	}
 
 	private static Class<?>[] getTypes(Object[] args)
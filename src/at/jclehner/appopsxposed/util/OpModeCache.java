@@ -0,0 +1,228 @@
+/*
+ * AppOpsXposed - AppOps for Android 4.3+
+ * Copyright (C) 2013-2015 Joseph C. Lehner
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.jclehner.appopsxposed.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.annotation.TargetApi;
+import android.app.AppOpsManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Binder;
+
+/**
+ * Caches the mode of a single op, per uid and package, in the current process.
+ * <p>
+ * Entries are dropped when AppOpsService reports a mode change for the package,
+ * and when the package is removed, so that a new package with the same uid
+ * doesn't inherit the old mode. If either can't be watched, no modes are
+ * cached at all.
+ * <p>
+ * Package names passed to this class may come straight from an app, so a
+ * mode is only cached after verifying that the package belongs to the uid.
+ * Otherwise, an app could grow the cache without limit.
+ * <p>
+ * Lookups are lock-free; this class is thread-safe.
+ */
+@TargetApi(19)
+public class OpModeCache
+{
+	// All uids for which the mode of a package is known, one per user.
+	private static class Entry
+	{
+		final int[] uids;
+		final int[] modes;
+
+		Entry(int[] uids, int[] modes)
+		{
+			this.uids = uids;
+			this.modes = modes;
+		}
+
+		int indexOf(int uid)
+		{
+			for(int i = 0; i != uids.length; ++i)
+			{
+				if(uids[i] == uid)
+					return i;
+			}
+
+			return -1;
+		}
+	}
+
+	private final int mOp;
+	private final AppOpsManagerWrapper mAppOps;
+	private final PackageManager mPm;
+	private final ConcurrentHashMap<String, Entry> mModes = new ConcurrentHashMap<>();
+	private final boolean mIsWatching;
+
+	// Incremented (under the lock) on each invalidation, so that a mode that
+	// was obtained before an invalidation isn't cached afterwards.
+	private volatile int mGeneration = 0;
+
+	public OpModeCache(Context context, int op)
+	{
+		mOp = op;
+		mAppOps = AppOpsManagerWrapper.from(context);
+		mPm = context.getPackageManager();
+		mIsWatching = startWatching(context);
+	}
+
+	public int checkOpNoThrow(int uid, String packageName)
+	{
+		final Entry entry = mModes.get(packageName);
+		if(entry != null)
+		{
+			final int i = entry.indexOf(uid);
+			if(i != -1)
+				return entry.modes[i];
+		}
+
+		final int generation = mGeneration;
+		final int mode = mAppOps.checkOpNoThrow(mOp, uid, packageName);
+
+		if(mIsWatching && isPackageOfUidUncached(uid, packageName))
+			put(generation, uid, packageName, mode);
+
+		return mode;
+	}
+
+	/**
+	 * Returns true if the package belongs to the specified uid. This is
+	 * cheap if {@link #checkOpNoThrow(int, String)} has been called for
+	 * this package and uid before.
+	 */
+	public boolean isPackageOfUid(int uid, String packageName)
+	{
+		final Entry entry = mModes.get(packageName);
+		if(entry != null && entry.indexOf(uid) != -1)
+			return true;
+
+		return isPackageOfUidUncached(uid, packageName);
+	}
+
+	private boolean isPackageOfUidUncached(int uid, String packageName)
+	{
+		// The caller may be an app, whose identity must not be used here
+		final long token = Binder.clearCallingIdentity();
+		try
+		{
+			final String[] packages = mPm.getPackagesForUid(uid);
+			if(packages != null)
+			{
+				for(String pkg : packages)
+				{
+					if(pkg.equals(packageName))
+						return true;
+				}
+			}
+
+			return false;
+		}
+		finally
+		{
+			Binder.restoreCallingIdentity(token);
+		}
+	}
+
+	public synchronized void invalidate(String packageName)
+	{
+		++mGeneration;
+
+		if(packageName != null)
+			mModes.remove(packageName);
+		else
+			mModes.clear();
+	}
+
+	private synchronized void put(int generation, int uid, String packageName, int mode)
+	{
+		if(generation != mGeneration)
+			return;
+
+		final Entry entry = mModes.get(packageName);
+		final int[] uids, modes;
+
+		if(entry == null)
+		{
+			uids = new int[] { uid };
+			modes = new int[] { mode };
+		}
+		else
+		{
+			final int i = entry.indexOf(uid);
+			if(i != -1)
+			{
+				uids = entry.uids;
+				modes = entry.modes.clone();
+				modes[i] = mode;
+			}
+			else
+			{
+				final int n = entry.uids.length;
+				uids = new int[n + 1];
+				modes = new int[n + 1];
+				System.arraycopy(entry.uids, 0, uids, 0, n);
+				System.arraycopy(entry.modes, 0, modes, 0, n);
+				uids[n] = uid;
+				modes[n] = mode;
+			}
+		}
+
+		mModes.put(packageName, new Entry(uids, modes));
+	}
+
+	private boolean startWatching(Context context)
+	{
+		try
+		{
+			mAppOps.startWatchingMode(mOp, null, new AppOpsManager.OnOpChangedListener() {
+				@Override
+				public void onOpChanged(String op, String packageName) {
+					invalidate(packageName);
+				}
+			});
+
+			final IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_REMOVED);
+			filter.addDataScheme("package");
+
+			context.registerReceiver(new BroadcastReceiver() {
+				@Override
+				public void onReceive(Context context, Intent intent)
+				{
+					final Uri data = intent.getData();
+					invalidate(data != null ? data.getSchemeSpecificPart() : null);
+				}
+			}, filter);
+
+			return true;
+		}
+		catch(RuntimeException e)
+		{
+			Util.log("Failed to watch op " + mOp + "; not caching modes");
+			Util.debug(e);
+			return false;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * AppOpsXposed - AppOps for Android 4.3+
+ * Copyright (C) 2013-2015 Joseph C. Lehner
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.jclehner.appopsxposed.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import android.os.SystemClock;
+
+/**
+ * Sorted list that is built from chunks, for loaders that want to show
+ * results while they're still loading. Each chunk is sorted and merged
+ * into the list. The first chunk, and from then on at most one chunk per
+ * interval, is passed on to a {@link Listener}.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ProgressiveResult<T>
+{
+	public interface Listener<T>
+	{
+		/**
+		 * Called on the thread that added the chunk. The list is a sorted
+		 * copy of all items added so far, and is not modified afterwards.
+		 */
+		void onPartialResult(List<T> result);
+	}
+
+	private final Comparator<? super T> mComparator;
+	private final Listener<T> mListener;
+	private final long mIntervalMillis;
+
+	private ArrayList<T> mList = new ArrayList<>();
+	private long mLastNotified = -1;
+
+	public ProgressiveResult(Comparator<? super T> comparator, long intervalMillis,
+			Listener<T> listener)
+	{
+		mComparator = comparator;
+		mIntervalMillis = intervalMillis;
+		mListener = listener;
+	}
+
+	public void addChunk(List<T> chunk)
+	{
+		if(chunk.isEmpty())
+			return;
+
+		Collections.sort(chunk, mComparator);
+
+		final List<T> partial;
+
+		synchronized(this)
+		{
+			mList = merge(mList, chunk);
+
+			final long now = SystemClock.elapsedRealtime();
+			if(mListener != null && (mLastNotified == -1 || now - mLastNotified >= mIntervalMillis))
+			{
+				mLastNotified = now;
+				partial = new ArrayList<>(mList);
+			}
+			else
+				partial = null;
+		}
+
+		if(partial != null)
+			mListener.onPartialResult(partial);
+	}
+
+	/**
+	 * Returns all items added so far, sorted.
+	 */
+	public synchronized List<T> get() {
+		return new ArrayList<>(mList);
+	}
+
+	private ArrayList<T> merge(List<T> a, List<T> b)
+	{
+		final ArrayList<T> ret = new ArrayList<>(a.size() + b.size());
+
+		// Chunks are usually much smaller than the list, so the position of
+		// each item is found using a binary search, rather than by comparing
+		// it with every item of the list.
+		int i = 0;
+		for(T item : b)
+		{
+			final int pos = upperBound(a, i, item);
+			ret.addAll(a.subList(i, pos));
+			ret.add(item);
+			i = pos;
+		}
+
+		ret.addAll(a.subList(i, a.size()));
+		return ret;
+	}
+
+	// Returns the index of the first item in a[from...] that is greater than
+	// the specified item, so that equal items keep their order.
+	private int upperBound(List<T> a, int from, T item)
+	{
+		int lo = from, hi = a.size();
+		while(lo < hi)
+		{
+			final int mid = (lo + hi) >>> 1;
+			if(mComparator.compare(a.get(mid), item) <= 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+
+		return lo;
+	}
+}
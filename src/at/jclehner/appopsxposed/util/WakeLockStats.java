@@ -0,0 +1,138 @@
+/*
+ * AppOpsXposed - AppOps for Android 4.3+
+ * Copyright (C) 2013-2015 Joseph C. Lehner
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.jclehner.appopsxposed.util;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.os.SystemClock;
+
+/**
+ * Counts wakelock acquisitions per package, and how long FixWakeLock's hook
+ * took to decide on them. Recording never blocks; only the first acquisition
+ * of each package allocates.
+ * <p>
+ * Acquisitions with a null package name (i.e. one that couldn't be verified),
+ * and those of packages beyond the first {@link #MAX_PACKAGES}, are counted
+ * as one, so that this class uses a bounded amount of memory.
+ */
+public class WakeLockStats
+{
+	// Upper bounds of the latency buckets, in nanoseconds. The last
+	// bucket holds everything that took longer.
+	private static final long[] LATENCY_BUCKETS = {
+		1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000, 500000, 1000000
+	};
+
+	public static final int MAX_PACKAGES = 1000;
+
+	public static final String DUMP_HEADER = "AppOpsXposed wakelock stats";
+
+	private static final String OTHER = "(other)";
+
+	private static class PackageStats
+	{
+		final AtomicLong seen = new AtomicLong();
+		final AtomicLong blocked = new AtomicLong();
+		final AtomicLong allowedByTag = new AtomicLong();
+	}
+
+	private final ConcurrentHashMap<String, PackageStats> mPackages = new ConcurrentHashMap<>();
+	private final AtomicLongArray mLatencies = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+	private final long mStartTime = SystemClock.elapsedRealtime();
+
+	public void onSeen(String packageName) {
+		getPackageStats(packageName).seen.incrementAndGet();
+	}
+
+	public void onBlocked(String packageName) {
+		getPackageStats(packageName).blocked.incrementAndGet();
+	}
+
+	public void onAllowedByTag(String packageName) {
+		getPackageStats(packageName).allowedByTag.incrementAndGet();
+	}
+
+	public void onHookFinished(long nanos)
+	{
+		int i = 0;
+		while(i != LATENCY_BUCKETS.length && nanos >= LATENCY_BUCKETS[i])
+			++i;
+
+		mLatencies.incrementAndGet(i);
+	}
+
+	public void dump(PrintWriter pw)
+	{
+		pw.println(DUMP_HEADER + " (since "
+				+ (SystemClock.elapsedRealtime() - mStartTime) / 1000 + "s):");
+
+		pw.println("  Hook latency:");
+		for(int i = 0; i != mLatencies.length(); ++i)
+		{
+			final String label = i != LATENCY_BUCKETS.length ?
+					"< " + formatNanos(LATENCY_BUCKETS[i]) :
+					">= " + formatNanos(LATENCY_BUCKETS[i - 1]);
+
+			pw.println("    " + label + ": " + mLatencies.get(i));
+		}
+
+		pw.println("  Packages (seen / blocked / allowed by tag):");
+		for(Map.Entry<String, PackageStats> entry : new TreeMap<>(mPackages).entrySet())
+		{
+			final PackageStats stats = entry.getValue();
+			pw.println("    " + entry.getKey() + ": " + stats.seen.get() + " / "
+					+ stats.blocked.get() + " / " + stats.allowedByTag.get());
+		}
+	}
+
+	private PackageStats getPackageStats(String packageName)
+	{
+		if(packageName == null)
+			packageName = OTHER;
+
+		PackageStats stats = mPackages.get(packageName);
+		if(stats == null)
+		{
+			// The limit may be exceeded by a few entries if multiple threads
+			// get here at the same time, which is fine.
+			if(mPackages.size() >= MAX_PACKAGES)
+				packageName = OTHER;
+
+			final PackageStats newStats = new PackageStats();
+			stats = mPackages.putIfAbsent(packageName, newStats);
+			if(stats == null)
+				stats = newStats;
+		}
+
+		return stats;
+	}
+
+	private static String formatNanos(long nanos)
+	{
+		if(nanos >= 1000000)
+			return nanos / 1000000 + "ms";
+
+		return nanos / 1000 + "us";
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * AppOpsXposed - AppOps for Android 4.3+
+ * Copyright (C) 2013-2015 Joseph C. Lehner
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.jclehner.appopsxposed.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import android.content.SharedPreferences;
+
+/**
+ * Decides which wakelocks an app may acquire, even though its OP_WAKE_LOCK
+ * is not allowed.
+ * <p>
+ * The rules of a package are stored in two preferences:
+ * <ul>
+ * <li>{@code wakelock_hack_is_blacklist/<package>}: if true, all tags but the
+ * listed ones are allowed; if false, only the listed tags are allowed. If
+ * this preference doesn't exist, no wakelocks are allowed.</li>
+ * <li>{@code wakelock_hack_tags/<package>}: a string set of tags. A tag ending
+ * in {@code *} matches all tags starting with the rest of it, and a tag
+ * enclosed in slashes is a regular expression, which must match the whole
+ * tag. All other tags must match exactly.</li>
+ * </ul>
+ * The rules are compiled once, so that looking up a tag costs a hash lookup,
+ * a walk through a trie of all prefixes and, only if the package uses them,
+ * one regular expression match.
+ * <p>
+ * Instances are immutable.
+ */
+public class WakeLockTagFilter
+{
+	private static final String KEY_IS_BLACKLIST = "wakelock_hack_is_blacklist/";
+	private static final String KEY_TAGS = "wakelock_hack_tags/";
+
+	public static final WakeLockTagFilter EMPTY =
+			new WakeLockTagFilter(new HashMap<String, PackageRules>());
+
+	private static class PackageRules
+	{
+		final boolean isBlacklist;
+		final Set<String> exact = new HashSet<>();
+		final PrefixTrie prefixes = new PrefixTrie();
+		Pattern regex;
+
+		PackageRules(boolean isBlacklist) {
+			this.isBlacklist = isBlacklist;
+		}
+
+		boolean matches(String tag)
+		{
+			return exact.contains(tag) || prefixes.matchesPrefixOf(tag)
+					|| (regex != null && regex.matcher(tag).matches());
+		}
+	}
+
+	private static class PrefixTrie
+	{
+		// children are sorted by key
+		private char[] mKeys = new char[0];
+		private PrefixTrie[] mChildren = new PrefixTrie[0];
+		private boolean mIsTerminal = false;
+
+		void add(String prefix)
+		{
+			PrefixTrie node = this;
+			for(int i = 0; i != prefix.length() && !node.mIsTerminal; ++i)
+				node = node.getOrAddChild(prefix.charAt(i));
+
+			// Anything below a terminal node would be redundant
+			node.mIsTerminal = true;
+			node.mKeys = new char[0];
+			node.mChildren = new PrefixTrie[0];
+		}
+
+		boolean matchesPrefixOf(String s)
+		{
+			PrefixTrie node = this;
+			for(int i = 0; !node.mIsTerminal; ++i)
+			{
+				if(i == s.length())
+					return false;
+
+				final int k = Arrays.binarySearch(node.mKeys, s.charAt(i));
+				if(k < 0)
+					return false;
+
+				node = node.mChildren[k];
+			}
+
+			return true;
+		}
+
+		private PrefixTrie getOrAddChild(char c)
+		{
+			int k = Arrays.binarySearch(mKeys, c);
+			if(k >= 0)
+				return mChildren[k];
+
+			k = -k - 1;
+
+			final char[] keys = new char[mKeys.length + 1];
+			System.arraycopy(mKeys, 0, keys, 0, k);
+			System.arraycopy(mKeys, k, keys, k + 1, mKeys.length - k);
+			keys[k] = c;
+
+			final PrefixTrie[] children = new PrefixTrie[mChildren.length + 1];
+			System.arraycopy(mChildren, 0, children, 0, k);
+			System.arraycopy(mChildren, k, children, k + 1, mChildren.length - k);
+			children[k] = new PrefixTrie();
+
+			mKeys = keys;
+			mChildren = children;
+			return children[k];
+		}
+	}
+
+	private final Map<String, PackageRules> mRules;
+
+	private WakeLockTagFilter(Map<String, PackageRules> rules) {
+		mRules = rules;
+	}
+
+	public static WakeLockTagFilter compile(SharedPreferences prefs)
+	{
+		final HashMap<String, PackageRules> allRules = new HashMap<>();
+
+		for(Map.Entry<String, ?> pref : prefs.getAll().entrySet())
+		{
+			if(!pref.getKey().startsWith(KEY_IS_BLACKLIST) || !(pref.getValue() instanceof Boolean))
+				continue;
+
+			final String packageName = pref.getKey().substring(KEY_IS_BLACKLIST.length());
+			final PackageRules rules = new PackageRules((Boolean) pref.getValue());
+			final Set<String> tags = prefs.getStringSet(KEY_TAGS + packageName, null);
+
+			if(tags != null)
+				addTags(packageName, rules, tags);
+
+			allRules.put(packageName, rules);
+		}
+
+		return new WakeLockTagFilter(allRules);
+	}
+
+	public boolean canAcquire(String packageName, String tag)
+	{
+		final PackageRules rules = mRules.get(packageName);
+		if(rules == null)
+			return false;
+
+		return rules.matches(tag) != rules.isBlacklist;
+	}
+
+	private static void addTags(String packageName, PackageRules rules, Set<String> tags)
+	{
+		final StringBuilder regex = new StringBuilder();
+
+		for(String tag : tags)
+		{
+			if(tag.length() >= 2 && tag.startsWith("/") && tag.endsWith("/"))
+			{
+				final String expr = tag.substring(1, tag.length() - 1);
+
+				try
+				{
+					Pattern.compile(expr);
+				}
+				catch(PatternSyntaxException e)
+				{
+					Util.log(packageName + ": ignoring invalid wakelock tag regex " + tag);
+					continue;
+				}
+
+				if(regex.length() != 0)
+					regex.append('|');
+
+				regex.append("(?:").append(expr).append(')');
+			}
+			else if(tag.endsWith("*"))
+				rules.prefixes.add(tag.substring(0, tag.length() - 1));
+			else
+				rules.exact.add(tag);
+		}
+
+		if(regex.length() != 0)
+			rules.regex = Pattern.compile(regex.toString());
+	}
+}
@@ -16,8 +16,12 @@
 
 package com.android.settings.applications;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import android.app.ListFragment;
 import android.app.LoaderManager;
@@ -43,6 +47,8 @@ import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 import at.jclehner.appopsxposed.R;
+import at.jclehner.appopsxposed.util.AppOpsSnapshot;
+import at.jclehner.appopsxposed.util.ProgressiveResult;
 
 import com.android.settings.applications.AppOpsState.AppOpEntry;
 
@@ -103,8 +109,24 @@ public class AppOpsCategory extends ListFragment implements
         }
 
         @Override public void onReceive(Context context, Intent intent) {
+            final String[] packageNames;
+            if (intent.getData() != null) {
+                packageNames = new String[] { intent.getData().getSchemeSpecificPart() };
+            } else {
+                packageNames = intent.getStringArrayExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST);
+            }
+
             // Tell the loader about the change.
-            mLoader.onContentChanged();
+            if (packageNames != null) {
+                for (String packageName : packageNames) {
+                    AppOpsSnapshot.invalidatePackage(packageName);
+                }
+                mLoader.onPackagesChanged(packageNames);
+            } else {
+                AppOpsSnapshot.invalidate();
+                mLoader.requestFullReload();
+                mLoader.onContentChanged();
+            }
         }
     }
 
@@ -112,14 +134,44 @@ public class AppOpsCategory extends ListFragment implements
      * A custom Loader that loads all of the installed applications.
      */
     public static class AppListLoader extends AsyncTaskLoader<List<AppOpEntry>> {
+        /**
+         * The most recent result of a template, along with the generation of the
+         * AppOpsSnapshot it was built from.
+         */
+        static class CachedResult {
+            final int generation;
+            final List<AppOpEntry> apps;
+
+            CachedResult(int generation, List<AppOpEntry> apps) {
+                this.generation = generation;
+                this.apps = apps;
+            }
+        }
+
+        // Shared by all tabs, so that results survive the fragments being
+        // destroyed while swiping, or while the details are shown.
+        static final HashMap<AppOpsState.OpsTemplate, CachedResult> sResultCache
+                = new HashMap<AppOpsState.OpsTemplate, CachedResult>();
+
         final InterestingConfigChanges mLastConfig = new InterestingConfigChanges();
         final AppOpsState mState;
         final AppOpsState.OpsTemplate mTemplate;
         final Handler mHandler;
 
         List<AppOpEntry> mApps;
+        // Generation of the snapshot mApps was built from, or -1 if unknown
+        int mAppsGeneration = -1;
         PackageIntentReceiver mPackageObserver;
 
+        // Packages that have changed since the last load. Unless a full reload
+        // is requested, the next load will only update these packages.
+        final Set<String> mChangedPackages = new HashSet<String>();
+        boolean mFullReloadRequested = true;
+
+        // Identifies the current load, so that partial results of a
+        // previous load are dropped.
+        volatile int mLoadId = 0;
+
         public AppListLoader(Context context, AppOpsState state, AppOpsState.OpsTemplate template) {
             super(context);
             mState = state;
@@ -127,10 +179,70 @@ public class AppOpsCategory extends ListFragment implements
             mHandler = new Handler();
         }
 
+        /**
+         * Called when packages were added, changed or removed.
+         */
+        void onPackagesChanged(String[] packageNames) {
+            synchronized (mChangedPackages) {
+                Collections.addAll(mChangedPackages, packageNames);
+            }
+            onContentChanged();
+        }
+
+        void requestFullReload() {
+            synchronized (mChangedPackages) {
+                mFullReloadRequested = true;
+            }
+        }
+
         @Override public List<AppOpEntry> loadInBackground() {
             //return mState.buildStateWithChangedOpsOnly();
+            final List<AppOpEntry> current = mApps;
+            final List<String> changedPackages;
+            final boolean fullReload;
+            synchronized (mChangedPackages) {
+                fullReload = mFullReloadRequested || current == null;
+                changedPackages = new ArrayList<String>(mChangedPackages);
+                mChangedPackages.clear();
+                mFullReloadRequested = false;
+            }
+
+            // Anything invalidated after this point will cause a reload, as
+            // the result is cached with this generation.
+            final int generation = AppOpsSnapshot.getCurrentGeneration();
+
             try {
-                return mState.buildState(mTemplate);
+                if (!fullReload) {
+                    // The current list is in use by the adapter, so update a copy.
+                    final List<AppOpEntry> apps = new ArrayList<AppOpEntry>(current);
+                    for (String packageName : changedPackages) {
+                        mState.updatePackage(apps, mTemplate, packageName);
+                    }
+                    return putCachedResult(generation, apps);
+                }
+
+                synchronized (sResultCache) {
+                    final CachedResult cached = sResultCache.get(mTemplate);
+                    if (cached != null && cached.generation == generation) {
+                        return cached.apps;
+                    }
+                }
+
+                final int loadId = ++mLoadId;
+                return putCachedResult(generation, mState.buildState(mTemplate,
+                        new ProgressiveResult.Listener<AppOpEntry>() {
+
+                    @Override
+                    public void onPartialResult(final List<AppOpEntry> apps) {
+                        mHandler.post(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                deliverPartialResult(loadId, apps);
+                            }
+                        });
+                    }
+                }));
             } catch (final SecurityException e) {
                 mHandler.post(new Runnable() {
 
@@ -145,6 +257,31 @@ public class AppOpsCategory extends ListFragment implements
             }
         }
 
+        private List<AppOpEntry> putCachedResult(int generation, List<AppOpEntry> apps) {
+            synchronized (sResultCache) {
+                sResultCache.put(mTemplate, new CachedResult(generation, apps));
+            }
+            return apps;
+        }
+
+        private int getCachedGeneration(List<AppOpEntry> apps) {
+            synchronized (sResultCache) {
+                final CachedResult cached = sResultCache.get(mTemplate);
+                return cached != null && cached.apps == apps ? cached.generation : -1;
+            }
+        }
+
+        /**
+         * Delivers the entries of a full reload that have been loaded so far.
+         * Unlike {@link #deliverResult(List)}, this doesn't replace the current
+         * result, which incremental updates are based on.
+         */
+        void deliverPartialResult(int loadId, List<AppOpEntry> apps) {
+            if (loadId == mLoadId && isStarted() && !isLoadInBackgroundCanceled()) {
+                super.deliverResult(apps);
+            }
+        }
+
         /**
          * Called when there is new data to deliver to the client.  The
          * super class will take care of delivering it; the implementation
@@ -160,6 +297,7 @@ public class AppOpsCategory extends ListFragment implements
             }
             List<AppOpEntry> oldApps = apps;
             mApps = apps;
+            mAppsGeneration = getCachedGeneration(apps);
 
             if (isStarted()) {
                 // If the Loader is currently started, we can immediately
@@ -179,9 +317,12 @@ public class AppOpsCategory extends ListFragment implements
          * Handles a request to start the Loader.
          */
         @Override protected void onStartLoading() {
-            // We don't monitor changed when loading is stopped, so need
-            // to always reload at this point.
-            onContentChanged();
+            // Package changes and changed ops invalidate the snapshot, so
+            // the current result is still valid if its generation is.
+            final boolean stale = mAppsGeneration != AppOpsSnapshot.getCurrentGeneration();
+            if (stale) {
+                requestFullReload();
+            }
 
             if (mApps != null) {
                 // If we currently have a result available, deliver it
@@ -197,8 +338,15 @@ public class AppOpsCategory extends ListFragment implements
             // Has something interesting in the configuration changed since we
             // last built the app list?
             boolean configChange = mLastConfig.applyNewConfig(getContext().getResources());
+            if (configChange) {
+                // Labels might have changed, so cached results are of no use.
+                synchronized (sResultCache) {
+                    sResultCache.clear();
+                }
+                requestFullReload();
+            }
 
-            if (takeContentChanged() || mApps == null || configChange) {
+            if (takeContentChanged() || mApps == null || stale || configChange) {
                 // If the data has changed since the last time it was loaded
                 // or is not currently available, start a load.
                 forceLoad();
@@ -219,6 +367,10 @@ public class AppOpsCategory extends ListFragment implements
         @Override public void onCanceled(List<AppOpEntry> apps) {
             super.onCanceled(apps);
 
+            // The changed packages were consumed by the canceled load, and
+            // the client may have received partial results.
+            requestFullReload();
+
             // At this point we can release the resources associated with 'apps'
             // if needed.
             onReleaseResources(apps);
@@ -319,7 +471,8 @@ public class AppOpsCategory extends ListFragment implements
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        mState = new AppOpsState(getActivity());
+        // The entries are cached beyond the lifetime of the activity.
+        mState = new AppOpsState(getActivity().getApplicationContext());
     }
 
     @Override public void onActivityCreated(Bundle savedInstanceState) {
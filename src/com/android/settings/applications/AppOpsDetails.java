@@ -16,6 +16,8 @@
 
 package com.android.settings.applications;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import android.Manifest;
@@ -29,23 +31,27 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.PermissionGroupInfo;
 import android.content.pm.PermissionInfo;
 import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceActivity;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.BaseAdapter;
 import android.widget.CompoundButton;
 import android.widget.ImageView;
-import android.widget.LinearLayout;
+import android.widget.ListView;
 import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import at.jclehner.appopsxposed.R;
+import at.jclehner.appopsxposed.util.AppInfoCache;
 import at.jclehner.appopsxposed.util.AppOpsManagerWrapper;
 import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.OpEntryWrapper;
-import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.PackageOpsWrapper;
 
 public class AppOpsDetails extends Fragment {
     static final String TAG = "AppOpsDetails";
@@ -58,19 +64,130 @@ public class AppOpsDetails extends Fragment {
     private PackageInfo mPackageInfo;
     private LayoutInflater mInflater;
     private View mRootView;
+    private View mAppSnippet;
     private TextView mAppVersion;
-    private LinearLayout mOperationsSection;
+    private ListView mOperationsList;
+    private OpsAdapter mAdapter;
+    private AsyncTask<Void, Void, RowsResult> mRowsTask;
+
+    /**
+     * Everything needed to bind a row, so that getView() doesn't have to do
+     * any lookups.
+     */
+    static class OpRow {
+        final AppOpsState.AppOpEntry entry;
+        final int switchOp;
+        final CharSequence name;
+        final CharSequence time;
+        final Drawable groupIcon;
+        boolean checked;
+
+        OpRow(AppOpsState.AppOpEntry entry, int switchOp, CharSequence name,
+                CharSequence time, Drawable groupIcon, boolean checked) {
+            this.entry = entry;
+            this.switchOp = switchOp;
+            this.name = name;
+            this.time = time;
+            this.groupIcon = groupIcon;
+            this.checked = checked;
+        }
+    }
+
+    static class RowsResult {
+        CharSequence appLabel;
+        Drawable appIcon;
+        final ArrayList<OpRow> rows = new ArrayList<OpRow>();
+    }
+
+    static class ViewHolder {
+        ImageView icon;
+        TextView name;
+        TextView time;
+        Switch sw;
+    }
+
+    class OpsAdapter extends BaseAdapter {
+        private List<OpRow> mRows = Collections.emptyList();
+
+        void setRows(List<OpRow> rows) {
+            mRows = rows;
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public int getCount() {
+            return mRows.size();
+        }
+
+        @Override
+        public OpRow getItem(int position) {
+            return mRows.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public boolean areAllItemsEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isEnabled(int position) {
+            // Only the switch is clickable
+            return false;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            final ViewHolder holder;
+            if (convertView == null) {
+                convertView = mInflater.inflate(R.layout.app_ops_details_item, parent, false);
+                holder = new ViewHolder();
+                holder.icon = (ImageView) convertView.findViewById(R.id.op_icon);
+                holder.name = (TextView) convertView.findViewById(R.id.op_name);
+                holder.time = (TextView) convertView.findViewById(R.id.op_time);
+                holder.sw = (Switch) convertView.findViewById(R.id.switchWidget);
+                convertView.setTag(holder);
+            } else {
+                holder = (ViewHolder) convertView.getTag();
+            }
+
+            final OpRow row = getItem(position);
+            holder.icon.setImageDrawable(row.groupIcon);
+            holder.name.setText(row.name);
+            holder.time.setText(row.time);
+
+            // The view might be recycled, so detach the previous row's listener
+            // before setting the state.
+            holder.sw.setOnCheckedChangeListener(null);
+            holder.sw.setChecked(row.checked);
+            holder.sw.setOnCheckedChangeListener(new Switch.OnCheckedChangeListener() {
+                @Override
+                public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                    row.checked = isChecked;
+                    mAppOps.setMode(row.switchOp, row.entry.getPackageOps().getUid(),
+                            row.entry.getPackageOps().getPackageName(), isChecked
+                            ? AppOpsManagerWrapper.MODE_ALLOWED : AppOpsManagerWrapper.MODE_IGNORED);
+                }
+            });
+
+            return convertView;
+        }
+    }
 
     // Utility method to set application label and icon.
     private void setAppLabelAndIcon(PackageInfo pkgInfo) {
-        final View appSnippet = mRootView.findViewById(R.id.app_snippet);
+        final View appSnippet = mAppSnippet;
         appSnippet.setPaddingRelative(0, appSnippet.getPaddingTop(), 0, appSnippet.getPaddingBottom());
 
-        ImageView icon = (ImageView) appSnippet.findViewById(R.id.app_icon);
-        icon.setImageDrawable(mPm.getApplicationIcon(pkgInfo.applicationInfo));
-        // Set application name.
+        // The label and icon are loaded along with the rows, see loadRows().
         TextView label = (TextView) appSnippet.findViewById(R.id.app_name);
-        label.setText(mPm.getApplicationLabel(pkgInfo.applicationInfo));
+        if (TextUtils.isEmpty(label.getText())) {
+            label.setText(pkgInfo.packageName);
+        }
         // Version number of application
         mAppVersion = (TextView) appSnippet.findViewById(R.id.app_size);
 
@@ -117,18 +234,55 @@ public class AppOpsDetails extends Fragment {
 
         setAppLabelAndIcon(mPackageInfo);
 
-        Resources res = getActivity().getResources();
+        if (mRowsTask != null) {
+            mRowsTask.cancel(false);
+        }
+
+        final Context context = getActivity().getApplicationContext();
+        final PackageInfo packageInfo = mPackageInfo;
+
+        // The rows require quite a few calls to the package manager and to
+        // AppOpsService, so they're built in the background. The previous rows,
+        // if any, remain visible in the meantime.
+        mRowsTask = new AsyncTask<Void, Void, RowsResult>() {
+            @Override
+            protected RowsResult doInBackground(Void... params) {
+                return loadRows(context, packageInfo);
+            }
+
+            @Override
+            protected void onPostExecute(RowsResult result) {
+                if (mRowsTask != this || getActivity() == null) {
+                    return;
+                }
+                mRowsTask = null;
+
+                ((ImageView) mAppSnippet.findViewById(R.id.app_icon)).setImageDrawable(
+                        result.appIcon);
+                ((TextView) mAppSnippet.findViewById(R.id.app_name)).setText(result.appLabel);
+                mAdapter.setRows(result.rows);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+
+        return true;
+    }
+
+    private RowsResult loadRows(Context context, PackageInfo packageInfo) {
+        final RowsResult result = new RowsResult();
+        final AppInfoCache cache = AppInfoCache.get(context);
+        result.appLabel = cache.getLabel(packageInfo);
+        result.appIcon = cache.getIcon(packageInfo);
 
-        mOperationsSection.removeAllViews();
+        final Resources res = context.getResources();
         boolean hasBootupSwitch = false;
         String lastPermGroup = "";
-        for (AppOpsState.OpsTemplate tpl : AppOpsState.ALL_TEMPLATES) {
-            List<AppOpsState.AppOpEntry> entries = mState.buildState(tpl,
-                    mPackageInfo.applicationInfo.uid, mPackageInfo.packageName);
+        final AppOpsState.PackageState state = mState.buildStateForAllTemplates(
+                packageInfo.applicationInfo.uid, packageInfo.packageName);
+        for (int i = 0; i < AppOpsState.ALL_TEMPLATES.length; i++) {
+            List<AppOpsState.AppOpEntry> entries = state.getEntries(i);
             for (final AppOpsState.AppOpEntry entry : entries) {
                 final OpEntryWrapper firstOp = entry.getOpEntry(0);
-                final View view = mInflater.inflate(R.layout.app_ops_details_item,
-                        mOperationsSection, false);
+                Drawable groupIcon = null;
                 String perm = AppOpsManagerWrapper.opToPermission(firstOp.getOp());
                 if (perm != null) {
                     if (Manifest.permission.RECEIVE_BOOT_COMPLETED.equals(perm)) {
@@ -145,38 +299,21 @@ public class AppOpsDetails extends Fragment {
                             lastPermGroup = pi.group;
                             PermissionGroupInfo pgi = mPm.getPermissionGroupInfo(pi.group, 0);
                             if (pgi.icon != 0) {
-                                ((ImageView)view.findViewById(R.id.op_icon)).setImageDrawable(
-                                        pgi.loadIcon(mPm));
+                                groupIcon = pgi.loadIcon(mPm);
                             }
                         }
                     } catch (NameNotFoundException e) {
                     }
                 }
-                ((TextView)view.findViewById(R.id.op_name)).setText(
-                        entry.getSwitchText(getActivity(), mState));
-                ((TextView)view.findViewById(R.id.op_time)).setText(
-                        entry.getTimeText(res, true));
 
-                Switch sw = (Switch)view.findViewById(R.id.switchWidget);
                 final int switchOp = AppOpsManagerWrapper.opToSwitch(firstOp.getOp());
-                sw.setChecked(modeToChecked(switchOp, entry.getPackageOps()));
-                sw.setOnCheckedChangeListener(new Switch.OnCheckedChangeListener() {
-                    @Override
-                    public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                        mAppOps.setMode(switchOp, entry.getPackageOps().getUid(),
-                                entry.getPackageOps().getPackageName(), isChecked
-                                ? AppOpsManagerWrapper.MODE_ALLOWED : AppOpsManagerWrapper.MODE_IGNORED);
-                    }
-                });
-                mOperationsSection.addView(view);
+                result.rows.add(new OpRow(entry, switchOp,
+                        entry.getSwitchText(context, mState), entry.getTimeText(res, true),
+                        groupIcon, modeToChecked(state.checkOpNoThrow(switchOp))));
             }
         }
 
-        return true;
-    }
-
-    private boolean modeToChecked(int switchOp, PackageOpsWrapper ops) {
-       return modeToChecked(mAppOps.checkOpNoThrow(switchOp, ops.getUid(), ops.getPackageName()));
+        return result;
     }
 
     static boolean modeToChecked(int mode) {
@@ -204,7 +341,7 @@ public class AppOpsDetails extends Fragment {
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
 
-        mState = new AppOpsState(getActivity());
+        mState = new AppOpsState(getActivity().getApplicationContext());
         mPm = getActivity().getPackageManager();
         mInflater = (LayoutInflater)getActivity().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         mAppOps = AppOpsManagerWrapper.from(getActivity());
@@ -221,7 +358,13 @@ public class AppOpsDetails extends Fragment {
         //Utils.prepareCustomPreferencesList(container, view, view, false);
 
         mRootView = view;
-        mOperationsSection = (LinearLayout)view.findViewById(R.id.operations_section);
+        mOperationsList = (ListView)view.findViewById(android.R.id.list);
+        final View header = inflater.inflate(R.layout.app_ops_details_header,
+                mOperationsList, false);
+        mAppSnippet = header.findViewById(R.id.app_snippet);
+        mOperationsList.addHeaderView(header, null, false);
+        mAdapter = new OpsAdapter();
+        mOperationsList.setAdapter(mAdapter);
         return view;
     }
 
@@ -232,4 +375,13 @@ public class AppOpsDetails extends Fragment {
             setIntentAndFinish(true, true);
         }
     }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (mRowsTask != null) {
+            mRowsTask.cancel(false);
+            mRowsTask = null;
+        }
+    }
 }
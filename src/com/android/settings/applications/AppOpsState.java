@@ -17,12 +17,15 @@
 package com.android.settings.applications;
 
 import java.io.File;
-import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -38,21 +41,30 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
+import android.text.SpannedString;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
 import android.text.style.StrikethroughSpan;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 import at.jclehner.appopsxposed.R;
+import at.jclehner.appopsxposed.util.AppInfoCache;
 import at.jclehner.appopsxposed.util.AppOpsManagerWrapper;
 import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.OpEntryWrapper;
 import at.jclehner.appopsxposed.util.AppOpsManagerWrapper.PackageOpsWrapper;
+import at.jclehner.appopsxposed.util.AppOpsSnapshot;
 import at.jclehner.appopsxposed.util.OpsLabelHelper;
+import at.jclehner.appopsxposed.util.ProgressiveResult;
 
 public class AppOpsState {
     static final String TAG = "AppOpsState";
     static final boolean DEBUG = false;
 
+    // Used when building the state progressively
+    static final int PACKAGES_PER_CHUNK = 32;
+    static final long PARTIAL_RESULT_INTERVAL_MILLIS = 150;
+
     final Context mContext;
     final AppOpsManagerWrapper mAppOps;
     final PackageManager mPm;
@@ -90,6 +102,9 @@ public class AppOpsState {
         public final int[] ops;
         public final boolean[] showPerms;
 
+        // Built on first use, see getTemplatePerms()
+        TemplatePerms mPerms;
+
         public OpsTemplate(int[] _ops, boolean[] _showPerms) {
             ops = _ops;
             showPerms = _showPerms;
@@ -100,6 +115,20 @@ public class AppOpsState {
             showPerms = src.createBooleanArray();
         }
 
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof OpsTemplate)) {
+                return false;
+            }
+            OpsTemplate other = (OpsTemplate) o;
+            return Arrays.equals(ops, other.ops) && Arrays.equals(showPerms, other.showPerms);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(ops);
+        }
+
         @Override
         public int describeContents() {
             return 0;
@@ -324,31 +353,36 @@ public class AppOpsState {
      */
     public static class AppEntry {
         private final AppOpsState mState;
+        private final PackageInfo mPackageInfo;
         private final ApplicationInfo mInfo;
         private final File mApkFile;
         private final SparseArray<OpEntryWrapper> mOps
                 = new SparseArray<OpEntryWrapper>();
+        private final BitSet mOpSet = new BitSet(AppOpsManagerWrapper._NUM_OP);
         private final SparseArray<AppOpEntry> mOpSwitches
                 = new SparseArray<AppOpEntry>();
         private String mLabel;
+        private byte[] mSortKey;
         private Drawable mIcon;
         private boolean mMounted;
         private boolean mHasDisallowedOps = false;
 
-        public AppEntry(AppOpsState state, ApplicationInfo info) {
+        public AppEntry(AppOpsState state, PackageInfo info) {
             mState = state;
-            mInfo = info;
-            mApkFile = new File(info.sourceDir);
+            mPackageInfo = info;
+            mInfo = info.applicationInfo;
+            mApkFile = new File(mInfo.sourceDir);
         }
 
         public void addOp(AppOpEntry entry, OpEntryWrapper op) {
             mOps.put(op.getOp(), op);
+            mOpSet.set(op.getOp());
             mHasDisallowedOps |= op.getMode() != AppOpsManagerWrapper.MODE_ALLOWED;
             mOpSwitches.put(opToSwitch(op.getOp()), entry);
         }
 
         public boolean hasOp(int op) {
-            return mOps.indexOfKey(op) >= 0;
+            return mOpSet.get(op);
         }
 
         public AppOpEntry getOpSwitch(int op) {
@@ -363,10 +397,19 @@ public class AppOpsState {
             return mLabel;
         }
 
+        /**
+         * Returns the collation key of the label.
+         *
+         * @see AppInfoCache#compareSortKeys(byte[], byte[])
+         */
+        public byte[] getSortKey() {
+            return mSortKey;
+        }
+
         public Drawable getIcon() {
             if (mIcon == null) {
                 if (mApkFile.exists()) {
-                    mIcon = mInfo.loadIcon(mState.mPm);
+                    mIcon = AppInfoCache.get(mState.mContext).getIcon(mPackageInfo);
                     return mIcon;
                 } else {
                     mMounted = false;
@@ -376,7 +419,7 @@ public class AppOpsState {
                 // its icon.
                 if (mApkFile.exists()) {
                     mMounted = true;
-                    mIcon = mInfo.loadIcon(mState.mPm);
+                    mIcon = AppInfoCache.get(mState.mContext).getIcon(mPackageInfo);
                     return mIcon;
                 }
             } else {
@@ -393,13 +436,21 @@ public class AppOpsState {
 
         void loadLabel(Context context) {
             if (mLabel == null || !mMounted) {
+                final AppInfoCache cache = AppInfoCache.get(context);
                 if (!mApkFile.exists()) {
                     mMounted = false;
                     mLabel = mInfo.packageName;
+                    mSortKey = cache.getSortKey(mLabel);
                 } else {
                     mMounted = true;
-                    CharSequence label = mInfo.loadLabel(context.getPackageManager());
-                    mLabel = label != null ? label.toString() : mInfo.packageName;
+                    CharSequence label = cache.getLabel(mPackageInfo);
+                    if (label != null) {
+                        mLabel = label.toString();
+                        mSortKey = cache.getSortKey(mPackageInfo);
+                    } else {
+                        mLabel = mInfo.packageName;
+                        mSortKey = cache.getSortKey(mLabel);
+                    }
                 }
             }
         }
@@ -416,6 +467,8 @@ public class AppOpsState {
                 = new ArrayList<OpEntryWrapper>();
         private final AppEntry mApp;
         private final int mSwitchOrder;
+        private CharSequence mSummaryText;
+        private CharSequence mSwitchText;
 
         public AppOpEntry(PackageOpsWrapper pkg, OpEntryWrapper op, AppEntry app,
                 int switchOrder) {
@@ -447,6 +500,8 @@ public class AppOpsState {
 
         public void addOp(OpEntryWrapper op) {
             mApp.addOp(this, op);
+            mSummaryText = null;
+            mSwitchText = null;
             addOp(mOps, op);
             if (mApp.getOpSwitch(opToSwitch(op.getOp())) == null) {
                 addOp(mSwitchOps, op);
@@ -517,19 +572,27 @@ public class AppOpsState {
                 builder.append(ss);
             }
 
-            return builder;
+            return new SpannedString(builder);
         }
 
+        // An entry's ops don't change once it has been built, so its texts are
+        // only built once. Entries are rebuilt for each snapshot generation.
         public CharSequence getSummaryText(Context context, AppOpsState state) {
-            return getCombinedText(context, mOps, state.mOpSummaries, true);
+            if (mSummaryText == null) {
+                mSummaryText = getCombinedText(context, mOps, state.mOpSummaries, true);
+            }
+            return mSummaryText;
         }
 
         public CharSequence getSwitchText(Context context, AppOpsState state) {
-            if (mSwitchOps.size() > 0) {
-                return getCombinedText(context, mSwitchOps, state.mOpLabels, false);
-            } else {
-                return getCombinedText(context, mOps, state.mOpLabels, false);
+            if (mSwitchText == null) {
+                if (mSwitchOps.size() > 0) {
+                    mSwitchText = getCombinedText(context, mSwitchOps, state.mOpLabels, false);
+                } else {
+                    mSwitchText = getCombinedText(context, mOps, state.mOpLabels, false);
+                }
             }
+            return mSwitchText;
         }
 
         public CharSequence getTimeText(Resources res, boolean showEmptyText) {
@@ -558,11 +621,46 @@ public class AppOpsState {
         }
     }
 
+    /**
+     * The entries of a single package, as returned by
+     * {@link AppOpsState#buildStateForAllTemplates(int, String)}.
+     */
+    public static class PackageState {
+        private final AppOpsState mState;
+        private final int mUid;
+        private final String mPackageName;
+        private final ArrayList<List<AppOpEntry>> mEntries
+                = new ArrayList<List<AppOpEntry>>(ALL_TEMPLATES.length);
+        private final SparseIntArray mModes = new SparseIntArray();
+
+        PackageState(AppOpsState state, int uid, String packageName) {
+            mState = state;
+            mUid = uid;
+            mPackageName = packageName;
+        }
+
+        /**
+         * Returns the sorted entries of the template at the specified index
+         * of {@link AppOpsState#ALL_TEMPLATES}.
+         */
+        public List<AppOpEntry> getEntries(int templateIndex) {
+            return mEntries.get(templateIndex);
+        }
+
+        /**
+         * Equivalent to AppOpsManager.checkOpNoThrow() for this package, but
+         * returns the mode that was checked while building the entries, if
+         * there was one.
+         */
+        public int checkOpNoThrow(int op) {
+            return mState.checkOpNoThrow(op, mUid, mPackageName, mModes);
+        }
+    }
+
     /**
      * Perform alphabetical comparison of application entry objects.
      */
     public static final Comparator<AppOpEntry> APP_OP_COMPARATOR = new Comparator<AppOpEntry>() {
-        private final Collator sCollator = Collator.getInstance();
         @Override
         public int compare(AppOpEntry object1, AppOpEntry object2) {
             if (object1.getSwitchOrder() != object2.getSwitchOrder()) {
@@ -580,8 +678,8 @@ public class AppOpsState {
                 // Disallowed ops go first.
                 return object1.hasDisallowedOps() ? -1 : 1;
             }
-            return sCollator.compare(object1.getAppEntry().getLabel(),
-                    object2.getAppEntry().getLabel());
+            return AppInfoCache.compareSortKeys(object1.getAppEntry().getSortKey(),
+                    object2.getAppEntry().getSortKey());
         }
     };
 
@@ -616,12 +714,12 @@ public class AppOpsState {
     }
 
     private AppEntry getAppEntry(final Context context, final HashMap<String, AppEntry> appEntries,
-            final String packageName, ApplicationInfo appInfo) {
+            final String packageName, PackageInfo appInfo) {
         AppEntry appEntry = appEntries.get(packageName);
         if (appEntry == null) {
             if (appInfo == null) {
                 try {
-                    appInfo = mPm.getApplicationInfo(packageName,
+                    appInfo = mPm.getPackageInfo(packageName,
                             PackageManager.GET_DISABLED_COMPONENTS
                             | PackageManager.GET_UNINSTALLED_PACKAGES);
                 } catch (PackageManager.NameNotFoundException e) {
@@ -637,21 +735,13 @@ public class AppOpsState {
     }
 
     public List<AppOpEntry> buildStateWithChangedOpsOnly() {
-        final List<PackageOpsWrapper> pkgs = mAppOps.getPackagesForOps(null);
+        final List<PackageOpsWrapper> pkgs = AppOpsSnapshot.get(mContext).getPackagesForOps(null);
         final HashMap<String, AppEntry> appEntries = new HashMap<String, AppEntry>();
         final List<AppOpEntry> entries = new ArrayList<AppOpEntry>();
         for (PackageOpsWrapper pkg : pkgs) {
             for (OpEntryWrapper op : pkg.getOps()) {
                 if (op.getMode() != AppOpsManagerWrapper.MODE_ALLOWED) {
-                    final ApplicationInfo appInfo;
-                    try {
-                        appInfo= mContext.getPackageManager().getApplicationInfo(
-                            pkg.getPackageName(), PackageManager.GET_DISABLED_COMPONENTS
-                            | PackageManager.GET_UNINSTALLED_PACKAGES);
-                    } catch (PackageManager.NameNotFoundException e) {
-                        continue;
-                    }
-                    final AppEntry app = getAppEntry(mContext, appEntries, appInfo.packageName, appInfo);
+                    final AppEntry app = getAppEntry(mContext, appEntries, pkg.getPackageName(), null);
                     if (app == null) {
                         continue;
                     }
@@ -660,49 +750,72 @@ public class AppOpsState {
                 }
             }
         }
+        AppInfoCache.get(mContext).flush();
         return entries;
     }
 
     public List<AppOpEntry> buildState(OpsTemplate tpl, int uid, String packageName) {
-        final Context context = mContext;
-
-        final HashMap<String, AppEntry> appEntries = new HashMap<String, AppEntry>();
-        final List<AppOpEntry> entries = new ArrayList<AppOpEntry>();
+        return buildState(tpl, uid, packageName, packageName != null);
+    }
 
-        final ArrayList<String> perms = new ArrayList<String>();
-        final ArrayList<Integer> permOps = new ArrayList<Integer>();
-        final int[] opToOrder = new int[AppOpsManagerWrapper._NUM_OP];
-        for (int i=0; i<tpl.ops.length; i++) {
-            if (isValidOp(tpl.ops[i]) && tpl.showPerms[i]) {
-                String perm = AppOpsManagerWrapper.opToPermission(tpl.ops[i]);
-                if (perm != null && !perms.contains(perm)) {
-                    perms.add(perm);
-                    permOps.add(tpl.ops[i]);
-                    opToOrder[tpl.ops[i]] = i;
-                }
+    /**
+     * Updates a list returned by {@link #buildState(OpsTemplate)} after the
+     * specified package was added, changed or removed. The list is modified
+     * in place, and remains sorted.
+     */
+    public void updatePackage(List<AppOpEntry> entries, OpsTemplate tpl, String packageName) {
+        int count = 0;
+        for (int i=0; i<entries.size(); i++) {
+            AppOpEntry entry = entries.get(i);
+            if (!packageName.equals(entry.getAppEntry().getApplicationInfo().packageName)) {
+                entries.set(count++, entry);
             }
         }
+        entries.subList(count, entries.size()).clear();
+
+        final ApplicationInfo appInfo;
+        try {
+            appInfo = mPm.getApplicationInfo(packageName, 0);
+        } catch (NameNotFoundException e) {
+            // Package was removed
+            return;
+        }
+
+        for (AppOpEntry entry : buildState(tpl, appInfo.uid, packageName, false)) {
+            int pos = Collections.binarySearch(entries, entry, APP_OP_COMPARATOR);
+            entries.add(pos < 0 ? -pos - 1 : pos, entry);
+        }
+    }
+
+    private List<AppOpEntry> buildState(OpsTemplate tpl, int uid, String packageName,
+            boolean forDetails) {
+        return buildState(tpl, uid, packageName, forDetails, null);
+    }
+
+    /**
+     * Like {@link #buildState(OpsTemplate)}, but packages are processed in chunks,
+     * and the sorted entries of all chunks processed so far are periodically passed
+     * on to the listener, so that a partial list can be shown while loading.
+     */
+    public List<AppOpEntry> buildState(OpsTemplate tpl,
+            ProgressiveResult.Listener<AppOpEntry> listener) {
+        return buildState(tpl, 0, null, false, listener);
+    }
 
+    private List<AppOpEntry> buildState(OpsTemplate tpl, int uid, String packageName,
+            boolean forDetails, ProgressiveResult.Listener<AppOpEntry> listener) {
+        final TemplatePerms perms = getTemplatePerms(tpl);
+
+        final AppOpsSnapshot snapshot = AppOpsSnapshot.get(mContext);
         List<PackageOpsWrapper> pkgs;
         if (packageName != null) {
-            pkgs = mAppOps.getOpsForPackage(uid, packageName, tpl.ops);
+            pkgs = snapshot.getOpsForPackage(uid, packageName, tpl.ops);
         } else {
-            pkgs = mAppOps.getPackagesForOpsMerged(tpl.ops);
+            pkgs = snapshot.getPackagesForOpsMerged(tpl.ops);
         }
 
-        if (pkgs != null) {
-            for (int i=0; i<pkgs.size(); i++) {
-                PackageOpsWrapper pkgOps = pkgs.get(i);
-                AppEntry appEntry = getAppEntry(context, appEntries, pkgOps.getPackageName(), null);
-                if (appEntry == null) {
-                    continue;
-                }
-                for (int j=0; j<pkgOps.getOps().size(); j++) {
-                    OpEntryWrapper opEntry = pkgOps.getOps().get(j);
-                    addOp(entries, pkgOps, appEntry, opEntry, packageName == null,
-                            packageName == null ? 0 : opToOrder[opEntry.getOp()]);
-                }
-            }
+        if (pkgs == null) {
+            pkgs = Collections.emptyList();
         }
 
         List<PackageInfo> apps;
@@ -714,15 +827,189 @@ public class AppOpsState {
             } catch (NameNotFoundException e) {
             }
         } else {
-            String[] permsArray = new String[perms.size()];
-            perms.toArray(permsArray);
-            apps = mPm.getPackagesHoldingPermissions(permsArray, 0);
+            apps = mPm.getPackagesHoldingPermissions(perms.perms, 0);
+        }
+
+        final List<AppOpEntry> entries;
+        if (listener == null) {
+            entries = buildEntries(pkgs, apps, perms, forDetails, null);
+            // Sort the list.
+            Collections.sort(entries, APP_OP_COMPARATOR);
+        } else {
+            entries = buildEntriesInChunks(pkgs, apps, perms, listener);
+        }
+
+        AppInfoCache.get(mContext).flush();
+
+        // Done!
+        return entries;
+    }
+
+    private List<AppOpEntry> buildEntriesInChunks(List<PackageOpsWrapper> pkgs,
+            List<PackageInfo> apps, TemplatePerms perms,
+            ProgressiveResult.Listener<AppOpEntry> listener) {
+        // A package's entries only depend on the package itself, so
+        // processing the packages in chunks yields the same entries.
+        final LinkedHashMap<String, List<PackageOpsWrapper>> pkgsByName
+                = new LinkedHashMap<String, List<PackageOpsWrapper>>();
+        for (PackageOpsWrapper pkgOps : pkgs) {
+            List<PackageOpsWrapper> list = pkgsByName.get(pkgOps.getPackageName());
+            if (list == null) {
+                list = new ArrayList<PackageOpsWrapper>(1);
+                pkgsByName.put(pkgOps.getPackageName(), list);
+            }
+            list.add(pkgOps);
+        }
+
+        final LinkedHashMap<String, PackageInfo> appsByName
+                = new LinkedHashMap<String, PackageInfo>();
+        for (PackageInfo app : apps) {
+            appsByName.put(app.packageName, app);
+        }
+
+        final LinkedHashSet<String> packageNames = new LinkedHashSet<String>(pkgsByName.keySet());
+        packageNames.addAll(appsByName.keySet());
+
+        final ProgressiveResult<AppOpEntry> result = new ProgressiveResult<AppOpEntry>(
+                APP_OP_COMPARATOR, PARTIAL_RESULT_INTERVAL_MILLIS, listener);
+        final List<PackageOpsWrapper> chunkPkgs = new ArrayList<PackageOpsWrapper>();
+        final List<PackageInfo> chunkApps = new ArrayList<PackageInfo>();
+        int count = 0;
+
+        for (String name : packageNames) {
+            final List<PackageOpsWrapper> pkgOps = pkgsByName.get(name);
+            if (pkgOps != null) {
+                chunkPkgs.addAll(pkgOps);
+            }
+            final PackageInfo app = appsByName.get(name);
+            if (app != null) {
+                chunkApps.add(app);
+            }
+
+            if (++count % PACKAGES_PER_CHUNK == 0 || count == packageNames.size()) {
+                result.addChunk(buildEntries(chunkPkgs, chunkApps, perms, false, null));
+                chunkPkgs.clear();
+                chunkApps.clear();
+            }
+        }
+
+        return result.get();
+    }
+
+    /**
+     * Builds the entries of a single package for all of {@link #ALL_TEMPLATES}.
+     * The package's info is only retrieved once, and each op's mode is only
+     * checked once, regardless of the number of templates it appears in.
+     * <p>
+     * Ops the package has used or had changed are taken from the
+     * AppOpsSnapshot. The others still need one checkOpNoThrow call each, as
+     * their mode may be affected by uid modes or user restrictions, which
+     * AppOpsService doesn't report in bulk.
+     */
+    public PackageState buildStateForAllTemplates(int uid, String packageName) {
+        final AppOpsSnapshot snapshot = AppOpsSnapshot.get(mContext);
+        final PackageState state = new PackageState(this, uid, packageName);
+
+        final List<PackageInfo> apps = new ArrayList<PackageInfo>(1);
+        try {
+            apps.add(mPm.getPackageInfo(packageName, PackageManager.GET_PERMISSIONS));
+        } catch (NameNotFoundException e) {
+        }
+
+        for (OpsTemplate tpl : ALL_TEMPLATES) {
+            final List<AppOpEntry> entries = buildEntries(
+                    snapshot.getOpsForPackage(uid, packageName, tpl.ops), apps,
+                    getTemplatePerms(tpl), true, state.mModes);
+            Collections.sort(entries, APP_OP_COMPARATOR);
+            state.mEntries.add(entries);
+        }
+
+        AppInfoCache.get(mContext).flush();
+
+        return state;
+    }
+
+    /**
+     * The permissions of a template's ops, indexed for the lookups done by
+     * {@link AppOpsState#buildEntries}.
+     */
+    static class TemplatePerms {
+        // Permissions whose ops are shown even if they were never used
+        final String[] perms;
+        // Maps each of these permissions to its op
+        final HashMap<String, Integer> permToOp;
+        // Each op's position in the template
+        final int[] opToOrder;
+
+        TemplatePerms(String[] perms, HashMap<String, Integer> permToOp, int[] opToOrder) {
+            this.perms = perms;
+            this.permToOp = permToOp;
+            this.opToOrder = opToOrder;
+        }
+    }
+
+    private TemplatePerms getTemplatePerms(OpsTemplate tpl) {
+        synchronized (tpl) {
+            if (tpl.mPerms != null) {
+                return tpl.mPerms;
+            }
+
+            final ArrayList<String> perms = new ArrayList<String>();
+            final HashMap<String, Integer> permToOp = new HashMap<String, Integer>();
+            final int[] opToOrder = new int[AppOpsManagerWrapper._NUM_OP];
+            for (int i=0; i<tpl.ops.length; i++) {
+                if (isValidOp(tpl.ops[i]) && tpl.showPerms[i]) {
+                    String perm = AppOpsManagerWrapper.opToPermission(tpl.ops[i]);
+                    if (perm != null && !permToOp.containsKey(perm)) {
+                        perms.add(perm);
+                        permToOp.put(perm, tpl.ops[i]);
+                        opToOrder[tpl.ops[i]] = i;
+                    }
+                }
+            }
+
+            tpl.mPerms = new TemplatePerms(perms.toArray(new String[perms.size()]),
+                    permToOp, opToOrder);
+            return tpl.mPerms;
+        }
+    }
+
+    /**
+     * Builds the (unsorted) entries of the specified packages. If modes is not
+     * null, it is used to cache the results of checkOpNoThrow, which is only
+     * valid if all entries belong to a single package.
+     */
+    private List<AppOpEntry> buildEntries(List<PackageOpsWrapper> pkgs, List<PackageInfo> apps,
+            TemplatePerms perms, boolean forDetails, SparseIntArray modes) {
+        final int[] opToOrder = perms.opToOrder;
+        final Context context = mContext;
+
+        final HashMap<String, AppEntry> appEntries = new HashMap<String, AppEntry>();
+        final List<AppOpEntry> entries = new ArrayList<AppOpEntry>();
+
+        // Use the package infos we already have, instead of retrieving them
+        // again for packages that have ops.
+        for (int i=0; i<apps.size(); i++) {
+            getAppEntry(context, appEntries, apps.get(i).packageName, apps.get(i));
+        }
+
+        for (int i=0; i<pkgs.size(); i++) {
+            PackageOpsWrapper pkgOps = pkgs.get(i);
+            AppEntry appEntry = getAppEntry(context, appEntries, pkgOps.getPackageName(), null);
+            if (appEntry == null) {
+                continue;
+            }
+            for (int j=0; j<pkgOps.getOps().size(); j++) {
+                OpEntryWrapper opEntry = pkgOps.getOps().get(j);
+                addOp(entries, pkgOps, appEntry, opEntry, !forDetails,
+                        forDetails ? opToOrder[opEntry.getOp()] : 0);
+            }
         }
 
         for (int i=0; i<apps.size(); i++) {
             PackageInfo appInfo = apps.get(i);
             AppEntry appEntry = getAppEntry(context, appEntries, appInfo.packageName,
-                    appInfo.applicationInfo);
+                    appInfo);
             if (appEntry == null) {
                 continue;
             }
@@ -740,39 +1027,51 @@ public class AppOpsState {
                     }
                     if (DEBUG) Log.d(TAG, "Pkg " + appInfo.packageName + ": requested perm "
                             + appInfo.requestedPermissions[j]);
-                    for (int k=0; k<perms.size(); k++) {
-                        if (!perms.get(k).equals(appInfo.requestedPermissions[j])) {
-                            continue;
-                        }
-                        if (DEBUG) Log.d(TAG, "Pkg " + appInfo.packageName + " perm " + perms.get(k)
-                                + " has op " + permOps.get(k) + ": " + appEntry.hasOp(permOps.get(k)));
-                        if (appEntry.hasOp(permOps.get(k))) {
-                            continue;
-                        }
-                        if (dummyOps == null) {
-                            dummyOps = new ArrayList<OpEntryWrapper>();
-                            pkgOps = new PackageOpsWrapper(
-                                    appInfo.packageName, appInfo.applicationInfo.uid, dummyOps);
+                    final Integer permOp = perms.permToOp.get(appInfo.requestedPermissions[j]);
+                    if (permOp == null) {
+                        continue;
+                    }
+                    final int op = permOp;
+                    if (DEBUG) Log.d(TAG, "Pkg " + appInfo.packageName + " perm "
+                            + appInfo.requestedPermissions[j] + " has op " + op + ": "
+                            + appEntry.hasOp(op));
+                    if (appEntry.hasOp(op)) {
+                        continue;
+                    }
+                    if (dummyOps == null) {
+                        dummyOps = new ArrayList<OpEntryWrapper>();
+                        pkgOps = new PackageOpsWrapper(
+                                appInfo.packageName, appInfo.applicationInfo.uid, dummyOps);
 
-                        }
-                        int mode = mAppOps.checkOpNoThrow(permOps.get(k), appInfo.applicationInfo.uid, appInfo.packageName);
-                        OpEntryWrapper opEntry = new OpEntryWrapper(
-                                permOps.get(k), mode, 0, 0, 0);
-                        dummyOps.add(opEntry);
-                        addOp(entries, pkgOps, appEntry, opEntry, packageName == null,
-                                packageName == null ? 0 : opToOrder[opEntry.getOp()]);
                     }
+                    int mode = checkOpNoThrow(op, appInfo.applicationInfo.uid,
+                            appInfo.packageName, modes);
+                    OpEntryWrapper opEntry = new OpEntryWrapper(op, mode, 0, 0, 0);
+                    dummyOps.add(opEntry);
+                    addOp(entries, pkgOps, appEntry, opEntry, !forDetails,
+                            forDetails ? opToOrder[opEntry.getOp()] : 0);
                 }
             }
         }
 
-        // Sort the list.
-        Collections.sort(entries, APP_OP_COMPARATOR);
-
-        // Done!
         return entries;
     }
 
+    private int checkOpNoThrow(int op, int uid, String packageName, SparseIntArray modes) {
+        if (modes == null) {
+            return mAppOps.checkOpNoThrow(op, uid, packageName);
+        }
+        synchronized (modes) {
+            int i = modes.indexOfKey(op);
+            if (i >= 0) {
+                return modes.valueAt(i);
+            }
+            int mode = mAppOps.checkOpNoThrow(op, uid, packageName);
+            modes.put(op, mode);
+            return mode;
+        }
+    }
+
     private boolean isValidOp(int op)
     {
         if (op >= 0 && op < AppOpsManagerWrapper._NUM_OP) {